@@ -0,0 +1,270 @@
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import absyn.*;
+import Symbol.SemanticAnalyzer;
+import Symbol.AnalyzerPrinter;
+import diag.Diagnostic;
+import diag.Diagnostics;
+import diag.JsonLinesRenderer;
+import diag.TextRenderer;
+import trace.Trace;
+
+/*
+  The compiler pipeline (parse, show tree, semantic analysis, optimization,
+  code generation) as a reusable object. All state lives in the objects one
+  compile() call creates, so one CminusCompiler can be shared by many threads
+  and compileAll() runs a batch of files on a fixed thread pool.
+*/
+public class CminusCompiler {
+
+    // visitors recurse over the tree, so give pool threads room for deep programs
+    private static final long STACK_SIZE = 64L * 1024 * 1024;
+
+    private boolean writeTree = false;
+    private boolean writeSymbols = false;
+    private boolean generateCode = true;
+    private boolean optimize = false;
+    private boolean useIR = false;
+    private boolean echoErrors = true;
+    private boolean jsonDiagnostics = false;
+    private int errorLimit = Diagnostics.DEFAULT_LIMIT;
+
+    // Write the syntax tree to file.abs (-a).
+    public void setWriteTree(boolean writeTree) {
+        this.writeTree = writeTree;
+    }
+
+    // Write the symbol tables to file.sym (-s).
+    public void setWriteSymbols(boolean writeSymbols) {
+        this.writeSymbols = writeSymbols;
+    }
+
+    // Generate file.tm (-c).
+    public void setGenerateCode(boolean generateCode) {
+        this.generateCode = generateCode;
+    }
+
+    // Constant folding, register allocation, condition lowering and peephole (-O).
+    public void setOptimize(boolean optimize) {
+        this.optimize = optimize;
+    }
+
+    // Generate code through the IR (ir.Lowering, then IRCodeGenerator) instead of CodeGenerator (-ir).
+    public void setUseIR(boolean useIR) {
+        this.useIR = useIR;
+    }
+
+    // Print parse and semantic errors to stderr as they are found; off, they are only kept in Result.diagnostics.
+    public void setEchoErrors(boolean echoErrors) {
+        this.echoErrors = echoErrors;
+    }
+
+    // Print the errors as JSON lines instead of text (-diag=json).
+    public void setJsonDiagnostics(boolean jsonDiagnostics) {
+        this.jsonDiagnostics = jsonDiagnostics;
+    }
+
+    // Stop a phase after this many errors; 0 for no limit (-max-errors=N).
+    public void setErrorLimit(int errorLimit) {
+        this.errorLimit = errorLimit;
+    }
+
+    // Outcome of compiling one file.
+    public static class Result {
+        public final String source;
+        public boolean aborted = false;
+        public boolean parsed = false;
+        public boolean analyzed = false;
+        public boolean semanticErrors = false;
+        public List<Diagnostic> diagnostics = List.of();
+        public boolean generated = false;
+        public int removedInstructions = 0;
+        public long elapsedNanos = 0;
+        public String treeOutput;
+        public String symbolOutput;
+        public String codeOutput;
+        public Exception failure;
+
+        Result(String source) {
+            this.source = source;
+        }
+
+        // Parsed, analyzed without errors, and code written if it was asked for.
+        public boolean succeeded() {
+            return failure == null && parsed && analyzed && !semanticErrors;
+        }
+    }
+
+    public Result compile(String source) {
+        return compile(source, null);
+    }
+
+    // Compile one file; if 'machine' is given the generated code is loaded into it as well.
+    public Result compile(String source, TMMachine machine) {
+        long start = System.nanoTime();
+        Result result = new Result(source);
+        String aFilename = Main.modifyFileName(source, ".abs");
+        String sFilename = Main.modifyFileName(source, ".sym");
+        String cFilename = Main.modifyFileName(source, ".tm");
+        try {
+            compile(result, () -> new FileReader(source), extension -> new FileWriter(
+                extension.equals(".abs") ? aFilename : extension.equals(".sym") ? sFilename : cFilename), machine);
+        } finally {
+            result.elapsedNanos = System.nanoTime() - start;
+        }
+        return result;
+    }
+
+    /*
+      Compile source text that is not in a file. 'name' is only used to label
+      the result. Nothing is written to disk: the outputs turned on with
+      setWriteTree/setWriteSymbols/setGenerateCode come back in the result's
+      treeOutput, symbolOutput and codeOutput.
+    */
+    public Result compileText(String name, String text) {
+        long start = System.nanoTime();
+        Result result = new Result(name);
+        Map<String, StringWriter> outputs = new HashMap<>();
+        try {
+            compile(result, () -> new StringReader(text), extension -> {
+                StringWriter out = new StringWriter();
+                outputs.put(extension, out);
+                return out;
+            }, null);
+        } finally {
+            result.elapsedNanos = System.nanoTime() - start;
+        }
+        if (outputs.containsKey(".abs")) result.treeOutput = outputs.get(".abs").toString();
+        if (outputs.containsKey(".sym")) result.symbolOutput = outputs.get(".sym").toString();
+        if (outputs.containsKey(".tm")) result.codeOutput = outputs.get(".tm").toString();
+        return result;
+    }
+
+    // Where a compile reads its source from and writes its .abs/.sym/.tm output to.
+    private interface Input {
+        Reader open() throws IOException;
+    }
+
+    private interface Output {
+        Writer open(String extension) throws IOException;
+    }
+
+    private void compile(Result result, Input input, Output output, TMMachine machine) {
+        Diagnostics diagnostics = new Diagnostics();
+        diagnostics.setLimit(errorLimit);
+        if (echoErrors) {
+            diagnostics.addSink(jsonDiagnostics ? new JsonLinesRenderer(System.err, result.source) : new TextRenderer(System.err));
+        }
+        try (Reader in = input.open()) {
+            AnalyzerPrinter aPrinter = new AnalyzerPrinter(writeTree ? output.open(".abs") : null, Trace.PARSER);
+            AnalyzerPrinter sPrinter = new AnalyzerPrinter(writeSymbols ? output.open(".sym") : null, Trace.SEMANTIC);
+            Lexer lexer = new Lexer(in);
+            lexer.diagnostics = diagnostics;
+            parser p = new parser(lexer);
+            p.diagnostics = diagnostics;
+            Absyn tree;
+            try {
+                tree = (Absyn) (p.parse().value);
+            } catch (Exception e) {
+                // a syntax error the parser could not recover from, or too many errors; already reported
+                if (p.valid && !(e instanceof Diagnostics.LimitReached)) throw e;
+                result.aborted = true;
+                return;
+            }
+            if (tree == null) return;
+
+            if (Main.SHOW_TREE) {
+                AbsynVisitor visitor = new ShowTreeVisitor(aPrinter);
+                tree.accept(visitor, 0, false);
+                if (writeTree) aPrinter.close();
+            }
+
+            if (!p.valid) {
+                if (echoErrors) System.out.println("Errors were found in parsing, semantic analysis not started.");
+                return;
+            }
+            result.parsed = true;
+
+            if (Main.RUN_SEMANTIC_ANALYSIS || generateCode) {
+                sPrinter.printMsg("\nStarting Semantic Analysis...");
+                SemanticAnalyzer analyzer = new SemanticAnalyzer(sPrinter, diagnostics);
+                analyzer.analyze((DecList) tree);
+                sPrinter.printMsg("Semantic Analysis Completed.");
+                if (writeSymbols) sPrinter.close();
+                result.analyzed = true;
+                result.semanticErrors = analyzer.hasErrors();
+
+                // the IR lowering needs every name resolved, so it only runs on clean programs
+                if (generateCode && !(useIR && result.semanticErrors)) {
+                    if (optimize) {
+                        ConstantFolder folder = new ConstantFolder();
+                        tree.accept(folder, 0, false);
+                    }
+                    PeepholeOptimizer peephole = optimize ? new PeepholeOptimizer() : null;
+                    if (useIR) {
+                        ir.Program program = new ir.Lowering().lower((DecList) tree);
+                        if (optimize) new ir.Optimizer().optimize(program);
+                        IRCodeGenerator generator = new IRCodeGenerator(output.open(".tm"));
+                        generator.setSlotColoring(optimize);
+                        if (peephole != null) generator.setPeephole(peephole);
+                        if (machine != null) generator.setMachine(machine);
+                        generator.generate(program);
+                    } else {
+                        CodeGenerator generator = new CodeGenerator(output.open(".tm"));
+                        generator.setRegisterAllocation(optimize);
+                        generator.setConditionLowering(optimize);
+                        if (peephole != null) generator.setPeephole(peephole);
+                        if (machine != null) generator.setMachine(machine);
+                        generator.visit(tree);
+                    }
+                    result.generated = true;
+                    if (peephole != null) result.removedInstructions = peephole.getRemovedCount();
+                }
+            }
+        } catch (Exception e) {
+            result.failure = e;
+        } finally {
+            result.diagnostics = diagnostics.getDiagnostics();
+        }
+    }
+
+    // Daemon threads with a stack deep enough for the recursive visitors.
+    static ThreadFactory threadFactory(String prefix) {
+        return new ThreadFactory() {
+            private int count = 0;
+            public synchronized Thread newThread(Runnable r) {
+                Thread t = new Thread(null, r, prefix + (count++), STACK_SIZE);
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    // Compile every file on 'threads' worker threads; results come back in input order.
+    public List<Result> compileAll(List<String> sources, int threads) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads, threadFactory("cminus-"));
+        try {
+            List<Future<Result>> futures = new ArrayList<>();
+            for (String source : sources) {
+                futures.add(pool.submit(() -> compile(source)));
+            }
+            List<Result> results = new ArrayList<>();
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    Result failed = new Result(sources.get(i));
+                    failed.failure = e.getCause() instanceof Exception ex ? ex : e;
+                    results.add(failed);
+                }
+            }
+            return results;
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -1,6 +1,4 @@
-import Symbol.AnalyzerPrinter;
-import Symbol.SymbolEntry;
-import Symbol.SymbolTable;
+import trace.Trace;
 import absyn.*;
 import java.io.*;
 import java.util.*;
@@ -11,10 +9,9 @@ public class CodeGenerator implements AbsynVisitor {
     private int tempOffset = -1;
     private int currentLocalOffset = -1;
     private int mainEntry = -1;
-    private int globalOffset = 0;
+    private int inputAddr;
+    private int outputAddr;
 
-    private SymbolTable symbolTable;
-    private AnalyzerPrinter printer;
 
     public static final int AC = 0;
     public static final int AC1 = 1;
@@ -22,7 +19,15 @@ public class CodeGenerator implements AbsynVisitor {
     public static final int GP = 6;
     public static final int PC = 7;
 
-    private Map<String, Integer> localVarOffsets = new HashMap<>();
+    // Registers used for expression temporaries in register allocation mode.
+    // AC is first so the value of the whole expression ends up in AC.
+    private static final int[] EXP_REGS = {AC, 2, 3, 4};
+    private boolean registerAllocation = false;
+    private boolean conditionLowering = false;
+    private PeepholeOptimizer peephole;
+
+    // A conditional jump whose target is backpatched once it is known.
+    private record PendingJump(int loc, String opcode) {}
 
     public CodeGenerator(String outputFile) {
         try {
@@ -30,18 +35,39 @@ public class CodeGenerator implements AbsynVisitor {
         } catch (IOException e) {
             System.err.println("Failed to open output file: " + e.getMessage());
         }
-        this.printer = new AnalyzerPrinter("symbTree.txt", false);
-        symbolTable = new SymbolTable(printer);
+    }
+
+    // Write the TM code to 'out' instead of a file; it is closed when generation ends.
+    public CodeGenerator(Writer out) {
+        this.tm = new TMWriter(out);
+    }
+
+    // Load the generated code into an in-process TM machine as it is emitted.
+    public void setMachine(TMMachine machine) {
+        tm.setMachine(machine);
+    }
+
+    // Keep expression temporaries in R2-R4 instead of frame temps when possible.
+    public void setRegisterAllocation(boolean registerAllocation) {
+        this.registerAllocation = registerAllocation;
+    }
+
+    // Run a peephole pass over the generated code before it is written.
+    public void setPeephole(PeepholeOptimizer peephole) {
+        this.peephole = peephole;
+    }
+
+    // Branch on relational if/while tests directly instead of materializing 0/1 first.
+    public void setConditionLowering(boolean conditionLowering) {
+        this.conditionLowering = conditionLowering;
     }
 
     public void visit(Absyn root) throws IOException {
-        System.out.println("[CG] Visiting Root Node");
-        symbolTable.enterScope("Global");
+        if (Trace.on(Trace.CODEGEN, Trace.DEBUG)) Trace.log(Trace.CODEGEN, "[CG] Visiting Root Node");
         emitPrelude();
         root.accept(this, 0, false);
         emitFinale();
-        symbolTable.exitScope("Leaving Global");
-        symbolTable.printTable();
+        if (peephole != null) peephole.optimize(tm);
         tm.close();
     }
 
@@ -55,16 +81,14 @@ public class CodeGenerator implements AbsynVisitor {
         int savedLoc = tm.emitSkip(1);
         tm.emitComment("Jump around i/o routines here");
         
-        //add input to symbol table.
-        symbolTable.insert("input",NameTy.INT,0,0,tm.getCurrentLoc());
+        inputAddr = tm.getCurrentLoc();
 
         tm.emitComment("code for input routine");
         tm.emitRM("ST", AC, -1, FP, "store return");  
         tm.emitRO("IN", AC, 0, 0, "input");
         tm.emitRM("LD", PC, -1, FP, "return to caller");
 
-        //add output to symbol table.
-        symbolTable.insert("output",NameTy.VOID,1,0,tm.getCurrentLoc());
+        outputAddr = tm.getCurrentLoc();
 
         tm.emitComment("code for output routine");
         tm.emitRM("ST", AC, -1, FP, "store return"); 
@@ -89,18 +113,23 @@ public class CodeGenerator implements AbsynVisitor {
         tm.emitRO("HALT", 0, 0, 0, "");
     }
 
+    // Entry point of a called function; input/output are the prelude routines.
+    private int functionAddress(FunctionDec f) {
+        if (f.body == null) return f.nameId == NameTable.INPUT ? inputAddr : outputAddr;
+        return f.funaddr;
+    }
+
     private int newLabel() {
         return labelCounter++;
     }
 
     @Override
     public void visit(IntExp node, int level, boolean isAddr) {
-        System.out.println("[CG] IntExp: " + node.value);
+        if (Trace.on(Trace.CODEGEN, Trace.DEBUG)) Trace.log(Trace.CODEGEN, "[CG] IntExp: " + node.value);
         try {
-            int value = Integer.parseInt(node.value);
-            tm.emitComment("Integer literal: " + value);
+            tm.emitComment("Integer literal: " + node.value);
             
-            tm.emitRM("LDC", AC, value, 0, "Load constant into R0");
+            tm.emitRM("LDC", AC, node.value, 0, "Load constant into R0");
 
         } catch (IOException e) {
             e.printStackTrace();
@@ -108,7 +137,7 @@ public class CodeGenerator implements AbsynVisitor {
     }
     @Override
     public void visit(AssignExp node, int level, boolean isAddr) {
-        System.out.println("[CG] AssignExp");
+        if (Trace.on(Trace.CODEGEN, Trace.DEBUG)) Trace.log(Trace.CODEGEN, "[CG] AssignExp");
         try {
             tm.emitComment("-> Assign");
         
@@ -135,8 +164,28 @@ public class CodeGenerator implements AbsynVisitor {
 
     @Override
     public void visit(OpExp node, int level, boolean isAddr) {
-        System.out.println("[CG] OpExp");
+        if (Trace.on(Trace.CODEGEN, Trace.DEBUG)) Trace.log(Trace.CODEGEN, "[CG] OpExp");
         try {
+            if (node.op == OpExp.AND || node.op == OpExp.OR) {
+                genShortCircuit(node, level);
+                return;
+            }
+            if (node.op == OpExp.NOT) {
+                tm.emitComment("-> not");
+                node.right.accept(this, level, false);
+                tm.emitRM("JEQ", AC, 2, PC, "op NOT, jump if false");
+                tm.emitRM("LDC", AC, 0, 0, "true becomes false");
+                tm.emitRM("LDA", PC, 1, PC, "unconditional jump");
+                tm.emitRM("LDC", AC, 1, 0, "false becomes true");
+                tm.emitComment("<- not");
+                return;
+            }
+            if (registerAllocation && registersNeeded(node) > 0) {
+                tm.emitComment("Binary Operation (registers)");
+                genInRegisters(node, 0);
+                tm.emitComment("<- op");
+                return;
+            }
 
             tm.emitComment("Binary Operation");
             node.left.accept(this, level, false);
@@ -203,29 +252,6 @@ public class CodeGenerator implements AbsynVisitor {
                     tm.emitRM("LDC", AC, 1, 0, "true case");
                     break;
                 } 
-                case OpExp.AND: {
-                    tm.emitRM("JEQ",AC1,3,PC, "op AND, branch if false");
-                    tm.emitRM("JEQ",AC,2,PC, " branch if false");
-                    tm.emitRM("LDC", AC, 1, 0, "true case");
-                    tm.emitRM("LDA", PC, 1, PC, "unconditional jump");
-                    tm.emitRM("LDC", AC, 0, 0, "false case");
-                    break;
-                }
-                case OpExp.OR: {
-                    tm.emitRM("JEQ",AC1,3,PC, "op OR, branch if True");
-                    tm.emitRM("JEQ",AC,2,PC, " branch if True");
-                    tm.emitRM("LDC", AC, 0, 0, "false case");
-                    tm.emitRM("LDA", PC, 1, PC, "unconditional jump");
-                    tm.emitRM("LDC", AC, 1, 0, "true case");
-                    break;
-                }
-                case OpExp.NOT: {
-                    tm.emitRM("JEQ",AC,2,PC, "op NOT, jump if false");
-                    tm.emitRM("LDC", AC, 1, 0, "Convert to false");
-                    tm.emitRM("LDA", PC, 1, PC, "unconditional jump");
-                    tm.emitRM("LDC", AC, 1, 0, "Convert to true");
-                    break;
-                }
                 case OpExp.UMINUS: {
                     tm.emitRM("LDC",AC1,0,0, "op UMINUS");
                     tm.emitRO("SUB", AC, AC1, AC, "subtract R1 from 0");
@@ -242,8 +268,250 @@ public class CodeGenerator implements AbsynVisitor {
         }
     }
 
+    /*
+      Jumping code for && and ||: the right operand is only evaluated when the
+      left one does not already decide the result, which is left in AC.
+    */
+    private void genShortCircuit(OpExp node, int level) throws IOException {
+        boolean isAnd = node.op == OpExp.AND;
+        tm.emitComment(isAnd ? "-> and" : "-> or");
+        node.left.accept(this, level, false);
+        int skipRight = tm.emitSkip(1);
+        node.right.accept(this, level, false);
+        int end = tm.getCurrentLoc();
+        tm.emitBackup(skipRight);
+        if (isAnd) tm.emitRM_Abs("JEQ", AC, end, "and: left is false, skip right");
+        else tm.emitRM_Abs("JNE", AC, end, "or: left is true, skip right");
+        tm.emitRestore();
+        tm.emitComment(isAnd ? "<- and" : "<- or");
+    }
+
+    /*
+      Sethi-Ullman number of an expression tree: how many registers it takes
+      to evaluate without spilling. Returns -1 if the tree contains anything
+      other than constants, scalar variables and arithmetic/relational
+      operators, since calls and array accesses use AC, AC1 and frame temps
+      themselves and could clobber R2-R4.
+    */
+    private int registersNeeded(Exp exp) {
+        if (exp instanceof IntExp || exp instanceof BoolExp) return 1;
+        if (exp instanceof VarExp varExp) return varExp.variable instanceof SimpleVar ? 1 : -1;
+        if (!(exp instanceof OpExp node)) return -1;
+
+        if (node.op == OpExp.UMINUS) return registersNeeded(node.right);
+        if (!isArithmetic(node.op) && !isRelational(node.op)) return -1;
+        if (isImmediateOperand(node)) return registersNeeded(node.left);
+
+        int left = registersNeeded(node.left);
+        int right = registersNeeded(node.right);
+        if (left < 0 || right < 0) return -1;
+        return left == right ? left + 1 : Math.max(left, right);
+    }
+
+    private boolean isArithmetic(int op) {
+        return op == OpExp.PLUS || op == OpExp.MINUS || op == OpExp.TIMES || op == OpExp.DIVIDE;
+    }
+
+    private boolean isRelational(int op) {
+        return op == OpExp.EQ || op == OpExp.NEQ || op == OpExp.LT || op == OpExp.GT
+            || op == OpExp.LTE || op == OpExp.GTE;
+    }
+
+    // x + c and x - c can be done with a single LDA on the register holding x
+    private boolean isImmediateOperand(OpExp node) {
+        return (node.op == OpExp.PLUS || node.op == OpExp.MINUS) && node.right instanceof IntExp;
+    }
+
+    /*
+      Evaluate a tree accepted by registersNeeded into EXP_REGS[base], using only
+      EXP_REGS[base..] for intermediate values. The operand that needs more
+      registers is evaluated first; when even that does not fit, the first
+      operand is spilled to a frame temp just like the non-register path does.
+    */
+    private void genInRegisters(Exp exp, int base) throws IOException {
+        int target = EXP_REGS[base];
+
+        if (exp instanceof IntExp intExp) {
+            tm.emitRM("LDC", target, intExp.value, 0, "Load constant");
+            return;
+        }
+        if (exp instanceof BoolExp boolExp) {
+            tm.emitRM("LDC", target, boolExp.value ? 1 : 0, 0, "Load boolean constant");
+            return;
+        }
+        if (exp instanceof VarExp varExp) {
+            SimpleVar variable = (SimpleVar) varExp.variable;
+            VarDec dec = variable.vardec;
+            int baseReg = dec.nestLevel == 0 ? GP : FP;
+            tm.emitRM("LD", target, dec.offset, baseReg, "Load value of variable '" + variable.name + "'");
+            return;
+        }
+
+        OpExp node = (OpExp) exp;
+        if (node.op == OpExp.UMINUS) {
+            genInRegisters(node.right, base);
+            tm.emitRM("LDC", AC1, 0, 0, "op UMINUS");
+            tm.emitRO("SUB", target, AC1, target, "negate");
+            return;
+        }
+        if (isImmediateOperand(node)) {
+            int value = ((IntExp) node.right).value;
+            genInRegisters(node.left, base);
+            tm.emitRM("LDA", target, node.op == OpExp.PLUS ? value : -value, target, "add constant");
+            return;
+        }
+
+        int[] operands = genOperandsInRegisters(node, base);
+        emitRegisterOp(node.op, target, operands[0], operands[1]);
+    }
+
+    // Evaluate both operands of a binary node, returning the registers holding
+    // the left and right values. The result register EXP_REGS[base] is one of them.
+    private int[] genOperandsInRegisters(OpExp node, int base) throws IOException {
+        int target = EXP_REGS[base];
+        int left = registersNeeded(node.left);
+        int right = registersNeeded(node.right);
+        boolean leftFirst = left >= right;
+        Exp first = leftFirst ? node.left : node.right;
+        Exp second = leftFirst ? node.right : node.left;
+        int secondNeed = leftFirst ? right : left;
+        int free = EXP_REGS.length - base - 1;
+
+        genInRegisters(first, base);
+        int firstReg = target;
+        int secondReg;
+        if (secondNeed <= free) {
+            genInRegisters(second, base + 1);
+            secondReg = EXP_REGS[base + 1];
+        } else {
+            tm.emitRM("ST", target, currentLocalOffset, FP, "Spill to temp");
+            currentLocalOffset --;
+            genInRegisters(second, base);
+            currentLocalOffset ++;
+            tm.emitRM("LD", AC1, currentLocalOffset, FP, "Reload spilled temp");
+            firstReg = AC1;
+            secondReg = target;
+        }
+        int leftReg = leftFirst ? firstReg : secondReg;
+        int rightReg = leftFirst ? secondReg : firstReg;
+        return new int[] {leftReg, rightReg};
+    }
+
+    private void emitRegisterOp(int op, int target, int left, int right) throws IOException {
+        switch (op) {
+            case OpExp.PLUS:   tm.emitRO("ADD", target, left, right, "op +"); return;
+            case OpExp.MINUS:  tm.emitRO("SUB", target, left, right, "op -"); return;
+            case OpExp.TIMES:  tm.emitRO("MUL", target, left, right, "op *"); return;
+            case OpExp.DIVIDE: tm.emitRO("DIV", target, left, right, "op /"); return;
+        }
+
+        tm.emitRO("SUB", target, left, right, "compare");
+        tm.emitRM(relationalJump(op), target, 2, PC, "branch if true");
+        tm.emitRM("LDC", target, 0, 0, "false case");
+        tm.emitRM("LDA", PC, 1, PC, "unconditional jump");
+        tm.emitRM("LDC", target, 1, 0, "true case");
+    }
+
+    /*
+      Condition lowering: emit code for a test that jumps when its value equals
+      jumpWhen and falls through otherwise. The jumps are left as skipped slots
+      in 'jumps' for the caller to backpatch. A relational test becomes a
+      subtraction followed by one conditional jump, &&/||/~ become jumps
+      between their operands, and anything else is evaluated into AC and
+      tested against zero.
+    */
+    private void genCondition(Exp test, int level, boolean jumpWhen, List<PendingJump> jumps) throws IOException {
+        if (test instanceof BoolExp boolExp) {
+            if (boolExp.value == jumpWhen) jumps.add(new PendingJump(tm.emitSkip(1), "LDA"));
+            return;
+        }
+        if (test instanceof OpExp node) {
+            if (node.op == OpExp.NOT) {
+                genCondition(node.right, level, !jumpWhen, jumps);
+                return;
+            }
+            if (node.op == OpExp.AND || node.op == OpExp.OR) {
+                // jumping on false through && (or on true through ||) can go straight
+                // to the final target; otherwise the left side skips over the right side
+                boolean direct = (node.op == OpExp.AND) != jumpWhen;
+                if (direct) {
+                    genCondition(node.left, level, jumpWhen, jumps);
+                } else {
+                    List<PendingJump> skipRight = new ArrayList<>();
+                    genCondition(node.left, level, !jumpWhen, skipRight);
+                    genCondition(node.right, level, jumpWhen, jumps);
+                    patchJumps(skipRight, tm.getCurrentLoc());
+                    return;
+                }
+                genCondition(node.right, level, jumpWhen, jumps);
+                return;
+            }
+            if (isRelational(node.op)) {
+                genDifference(node, level);
+                int op = jumpWhen ? node.op : invertRelational(node.op);
+                jumps.add(new PendingJump(tm.emitSkip(1), relationalJump(op)));
+                return;
+            }
+        }
+        test.accept(this, level, false);
+        jumps.add(new PendingJump(tm.emitSkip(1), jumpWhen ? "JNE" : "JEQ"));
+    }
+
+    // Leave left - right of a relational node in AC.
+    private void genDifference(OpExp node, int level) throws IOException {
+        if (registerAllocation && registersNeeded(node) > 0) {
+            if (node.right instanceof IntExp intExp) {
+                genInRegisters(node.left, 0);
+                int value = intExp.value;
+                if (value != 0) tm.emitRM("LDA", AC, -value, AC, "subtract constant");
+            } else {
+                int[] operands = genOperandsInRegisters(node, 0);
+                tm.emitRO("SUB", AC, operands[0], operands[1], "compare");
+            }
+            return;
+        }
+        node.left.accept(this, level, false);
+        tm.emitRM("ST", AC, currentLocalOffset, FP, "Store to temp");
+        currentLocalOffset --;
+        node.right.accept(this, level, false);
+        currentLocalOffset ++;
+        tm.emitRM("LD", AC1, currentLocalOffset, FP, "Load temp into R1");
+        tm.emitRO("SUB", AC, AC1, AC, "compare");
+    }
+
+    private int invertRelational(int op) {
+        switch (op) {
+            case OpExp.EQ:  return OpExp.NEQ;
+            case OpExp.NEQ: return OpExp.EQ;
+            case OpExp.LT:  return OpExp.GTE;
+            case OpExp.GTE: return OpExp.LT;
+            case OpExp.GT:  return OpExp.LTE;
+            default:        return OpExp.GT;
+        }
+    }
+
+    private String relationalJump(int op) {
+        switch (op) {
+            case OpExp.EQ:  return "JEQ";
+            case OpExp.NEQ: return "JNE";
+            case OpExp.LT:  return "JLT";
+            case OpExp.GT:  return "JGT";
+            case OpExp.LTE: return "JLE";
+            default:        return "JGE";
+        }
+    }
+
+    private void patchJumps(List<PendingJump> jumps, int target) throws IOException {
+        for (PendingJump jump : jumps) {
+            tm.emitBackup(jump.loc());
+            if (jump.opcode().equals("LDA")) tm.emitRM_Abs("LDA", PC, target, "jump on constant condition");
+            else tm.emitRM_Abs(jump.opcode(), AC, target, "conditional jump");
+            tm.emitRestore();
+        }
+    }
+
     @Override public void visit(DecList node, int level, boolean isAddr) {
-        System.out.println("[CG] DecList");
+        if (Trace.on(Trace.CODEGEN, Trace.DEBUG)) Trace.log(Trace.CODEGEN, "[CG] DecList");
         while (node != null) {
             if (node.head != null) node.head.accept(this, level, isAddr);
             node = node.tail;
@@ -252,7 +520,7 @@ public class CodeGenerator implements AbsynVisitor {
 
     @Override
     public void visit(FunctionDec node, int level, boolean isAddr) {
-        System.out.println("[CG] FunctionDec: " + node.func_name);
+        if (Trace.on(Trace.CODEGEN, Trace.DEBUG)) Trace.log(Trace.CODEGEN, "[CG] FunctionDec: " + node.func_name);
         try {
             tm.emitComment("Jump around function body here");
             int savedLoc = tm.emitSkip(1);
@@ -265,44 +533,32 @@ public class CodeGenerator implements AbsynVisitor {
             }
 
             if (node.body instanceof CompoundExp) {
-                SymbolEntry protFunc = symbolTable.lookup(node.func_name);
-
-                if (protFunc != null){
+                if (node.prototype != null){
                     //If prototype is found, make a jump to the function
                     int currLoc = tm.getCurrentLoc();
-                    int protLoc = protFunc.pc;
+                    int protLoc = node.prototype.funaddr;
                     tm.emitBackup(protLoc);
                     tm.emitRM("LDA",PC,currLoc - protLoc,PC,"Jump to function from prototype");
                     tm.emitRestore();
                     
                 }
-                symbolTable.insert(node.func_name,node.return_type.type,0,0,tm.getCurrentLoc());
-                symbolTable.enterScope(node.func_name);
                 currentLocalOffset = -1;
                 tm.emitRM("ST", AC,currentLocalOffset, FP, "Store return value");
                 currentLocalOffset --;
 
+                //parameter offsets were assigned by the analyzer, one slot each
                 VarDecList params = node.parameters;
 
                 while (params != null) {
-                    if (params.head instanceof SimpleDec simpleDec ) {
-                        String name = simpleDec.name;
-                        symbolTable.insert(name, simpleDec.type.type, 0, currentLocalOffset,  0);
-                        currentLocalOffset --;
-                    } else if (params.head instanceof ArrayDec arrayDec) {
-                        String name = arrayDec.name;
-                        symbolTable.insert(name, arrayDec.type.type, arrayDec.size + 1, currentLocalOffset, 0);
-                        currentLocalOffset --;
-                    }
+                    if (params.head != null) currentLocalOffset --;
                     params = params.tail;
                 }
 
                 node.body.accept(this, level + 1, isAddr);
-                symbolTable.exitScope(node.func_name);
             } else {
                 //If prototype, skip loc for backpatch
                 tm.emitComment("Prototype function, Jump to function here.");
-                symbolTable.insert(node.func_name, node.return_type.type, 0, 0, tm.emitSkip(1));
+                node.funaddr = tm.emitSkip(1);
 
             }
             int currLoc = tm.getCurrentLoc();
@@ -319,18 +575,15 @@ public class CodeGenerator implements AbsynVisitor {
 
     @Override
     public void visit(SimpleDec node, int level, boolean isAddr) {
-        System.out.println("[CG] SimpleDec: " + node.name);
+        if (Trace.on(Trace.CODEGEN, Trace.DEBUG)) Trace.log(Trace.CODEGEN, "[CG] SimpleDec: " + node.name);
         try {
-            if (symbolTable.getCurrentScope() > 0){
-                System.out.println("Inserting simpledec into symbol table at offset " + currentLocalOffset + " at node.name:" + node.name );
-                symbolTable.insert(node.name, node.type.type,0, currentLocalOffset, 0);            
-                tm.emitComment("Variable Declaration: " + node.name + " at local offset " + currentLocalOffset);
-                currentLocalOffset --;
+            if (node.nestLevel > 0){
+                if (Trace.on(Trace.CODEGEN, Trace.DEBUG)) Trace.log(Trace.CODEGEN, "SimpleDec at offset " + node.offset + " at node.name:" + node.name );
+                tm.emitComment("Variable Declaration: " + node.name + " at local offset " + node.offset);
+                currentLocalOffset = node.offset - 1;
             } else{
-                System.out.println("Inserting simpledec into symbol table at offset " + globalOffset + " at node.name:" + node.name );
-                symbolTable.insert(node.name, node.type.type,0, globalOffset, 0);            
-                tm.emitComment("Variable Declaration: " + node.name + " at global offset " + globalOffset);
-                globalOffset --;
+                if (Trace.on(Trace.CODEGEN, Trace.DEBUG)) Trace.log(Trace.CODEGEN, "SimpleDec at offset " + node.offset + " at node.name:" + node.name );
+                tm.emitComment("Variable Declaration: " + node.name + " at global offset " + node.offset);
             }
 
         } catch (Exception e) {
@@ -339,7 +592,7 @@ public class CodeGenerator implements AbsynVisitor {
     }
 
     @Override public void visit(CompoundExp node, int level, boolean isAddr) {
-        System.out.println("[CG] CompoundExp");
+        if (Trace.on(Trace.CODEGEN, Trace.DEBUG)) Trace.log(Trace.CODEGEN, "[CG] CompoundExp");
         if (node.decs != null) node.decs.accept(this, level + 1, isAddr);
         if (node.exps != null) node.exps.accept(this, level + 1, isAddr);
     }
@@ -347,23 +600,23 @@ public class CodeGenerator implements AbsynVisitor {
     @Override
     //Done but needs indexvar
     public void visit(VarExp node, int level, boolean isAddr) {
-        System.out.println("[CG] VarExp");
+        if (Trace.on(Trace.CODEGEN, Trace.DEBUG)) Trace.log(Trace.CODEGEN, "[CG] VarExp");
         try {
             if (node.variable instanceof SimpleVar variable) {
                 String name = variable.name;
                 
-                SymbolEntry entry = symbolTable.lookup(name);
-                System.out.println("[DEBUG] Lookup '" + name + "' => offset=" + entry.offset + " scope=" + entry.scope);
+                VarDec dec = variable.vardec;
+                if (Trace.on(Trace.CODEGEN, Trace.DEBUG)) Trace.log(Trace.CODEGEN, "[DEBUG] Resolved '" + name + "' => offset=" + dec.offset + " level=" + dec.nestLevel);
 
-                int baseReg = entry.scope == 0 ? GP : FP;
+                int baseReg = dec.nestLevel == 0 ? GP : FP;
 
                 //Store the address of variable in temp if true and also keep value in AC.
                 //If False, store value in temp.                 
                 if (isAddr) {
-                    tm.emitRM("LDA", AC, entry.offset, baseReg, "Get address of variable '" + name + "'");
+                    tm.emitRM("LDA", AC, dec.offset, baseReg, "Get address of variable '" + name + "'");
                     tm.emitRM("ST",AC,currentLocalOffset,FP,"Store Address");
                 } else {
-                    tm.emitRM("LD", AC, entry.offset, baseReg, "Load value of variable '" + name + "'");
+                    tm.emitRM("LD", AC, dec.offset, baseReg, "Load value of variable '" + name + "'");
                 }
             }
             else if(node.variable instanceof  IndexVar variable){
@@ -376,7 +629,7 @@ public class CodeGenerator implements AbsynVisitor {
     
 
     @Override public void visit(VarDecList node, int level, boolean isAddr) {
-        System.out.println("[CG] VarDecList");
+        if (Trace.on(Trace.CODEGEN, Trace.DEBUG)) Trace.log(Trace.CODEGEN, "[CG] VarDecList");
         while (node != null) {
             if (node.head != null) node.head.accept(this, level, isAddr);
             node = node.tail;
@@ -384,7 +637,7 @@ public class CodeGenerator implements AbsynVisitor {
     }
 
     @Override public void visit(ExpList node, int level, boolean isAddr) {
-        System.out.println("[CG] ExpList");
+        if (Trace.on(Trace.CODEGEN, Trace.DEBUG)) Trace.log(Trace.CODEGEN, "[CG] ExpList");
         while (node != null) {
             if (node.head != null) node.head.accept(this, level, isAddr);
             node = node.tail;
@@ -392,7 +645,7 @@ public class CodeGenerator implements AbsynVisitor {
     }
 
     @Override public void visit(WriteExp node, int level, boolean isAddr) {
-        System.out.println("[CG] WriteExp");
+        if (Trace.on(Trace.CODEGEN, Trace.DEBUG)) Trace.log(Trace.CODEGEN, "[CG] WriteExp");
         try {
             tm.emitComment("Write Expression");
             node.output.accept(this, level, false);
@@ -407,20 +660,27 @@ public class CodeGenerator implements AbsynVisitor {
     public void visit(IfExp exp, int offset, boolean isAddr) {
         try {
             tm.emitComment("-> if");
-            exp.test.accept(this, offset, false);
-            tm.emitComment("if: jump to else belongs here");
-            int jumpToElseLoc = tm.emitSkip(1);
+            List<PendingJump> toElse = new ArrayList<>();
+            if (conditionLowering) {
+                genCondition(exp.test, offset, false, toElse);
+            } else {
+                exp.test.accept(this, offset, false);
+                tm.emitComment("if: jump to else belongs here");
+                toElse.add(new PendingJump(tm.emitSkip(1), "JEQ"));
+            }
             if (exp.thenpart != null) exp.thenpart.accept(this, offset, isAddr);
-            int jumpToEndLoc = tm.emitSkip(0);
+            int jumpToEndLoc = -1;
             if (exp.elsepart != null) {
                 tm.emitComment("if: jump to end belongs here");
-                jumpToEndLoc = tm.emitSkip(0);
+                jumpToEndLoc = tm.emitSkip(1);
             }
-            tm.emitBackup(jumpToElseLoc);
-            tm.emitRM_Abs("JEQ", 0, jumpToEndLoc, "if: jmp to else");
-            tm.emitRestore();
+            patchJumps(toElse, tm.getCurrentLoc());
             if (exp.elsepart != null) {
                 exp.elsepart.accept(this, offset, isAddr);
+                int endLoc = tm.getCurrentLoc();
+                tm.emitBackup(jumpToEndLoc);
+                tm.emitRM_Abs("LDA", PC, endLoc, "if: jmp to end");
+                tm.emitRestore();
             }
             tm.emitComment("<- if");
         } catch (IOException e) {
@@ -430,7 +690,7 @@ public class CodeGenerator implements AbsynVisitor {
 
 	@Override
 	public void visit(ReadExp exp, int level, boolean isAddr) {
-		System.out.println("[CG] ReadExp");
+		if (Trace.on(Trace.CODEGEN, Trace.DEBUG)) Trace.log(Trace.CODEGEN, "[CG] ReadExp");
 		try {
 			tm.emitComment("Read Expression");
 			tm.emitRO("IN", AC, 0, 0, "Input value");
@@ -441,7 +701,7 @@ public class CodeGenerator implements AbsynVisitor {
 	
 	/*@Override
 	public void visit(RepeatExp exp, int level, boolean isAddr) {
-		System.out.println("[CG] RepeatExp");
+		if (Trace.on(Trace.CODEGEN, Trace.DEBUG)) Trace.log(Trace.CODEGEN, "[CG] RepeatExp");
 		try {
 			tm.emitComment("-> repeat");
 			
@@ -467,19 +727,16 @@ public class CodeGenerator implements AbsynVisitor {
 	
 	@Override
 	public void visit(ArrayDec exp, int level, boolean isAddr) {
-		System.out.println("[CG] ArrayDec: " + exp.name);
+		if (Trace.on(Trace.CODEGEN, Trace.DEBUG)) Trace.log(Trace.CODEGEN, "[CG] ArrayDec: " + exp.name);
 		try {
-            if (symbolTable.getCurrentScope() > 0){
-                System.out.println("Inserting into symbol table at offset " + currentLocalOffset + " at exp.name:" + exp.name );
-                symbolTable.insert(exp.name, exp.type.type, exp.size + 1, currentLocalOffset, 0);
-			    tm.emitComment("Array Declaration: " + exp.name + " with size " + exp.size + " at local offset " + currentLocalOffset);
-                currentLocalOffset = currentLocalOffset - exp.size-1;
+            if (exp.nestLevel > 0){
+                if (Trace.on(Trace.CODEGEN, Trace.DEBUG)) Trace.log(Trace.CODEGEN, "ArrayDec at offset " + exp.offset + " at exp.name:" + exp.name );
+			    tm.emitComment("Array Declaration: " + exp.name + " with size " + exp.size + " at local offset " + exp.offset);
+                currentLocalOffset = exp.offset - exp.size-1;
             }
             else{
-                System.out.println("Inserting into symbol table at offset " + globalOffset + " at exp.name:" + exp.name );
-                symbolTable.insert(exp.name, exp.type.type, exp.size + 1, globalOffset, 0);
-			    tm.emitComment("Array Declaration: " + exp.name + " with size " + exp.size + " at global offset " + globalOffset);
-                globalOffset = globalOffset - exp.size - 1;
+                if (Trace.on(Trace.CODEGEN, Trace.DEBUG)) Trace.log(Trace.CODEGEN, "ArrayDec at offset " + exp.offset + " at exp.name:" + exp.name );
+			    tm.emitComment("Array Declaration: " + exp.name + " with size " + exp.size + " at global offset " + exp.offset);
             }
 			
 		} catch (Exception e) {
@@ -489,7 +746,7 @@ public class CodeGenerator implements AbsynVisitor {
 	
 	@Override
 	public void visit(BoolExp exp, int level, boolean isAddr) {
-		System.out.println("[CG] BoolExp: " + exp.value);
+		if (Trace.on(Trace.CODEGEN, Trace.DEBUG)) Trace.log(Trace.CODEGEN, "[CG] BoolExp: " + exp.value);
 		try {
 			int val = exp.value ? 1 : 0;
 			tm.emitComment("Boolean literal: " + val);
@@ -502,17 +759,17 @@ public class CodeGenerator implements AbsynVisitor {
 	
     @Override
     public void visit(IndexVar exp, int level, boolean isAddr) {
-        System.out.println("[CG] IndexVar: " + exp.name);
+        if (Trace.on(Trace.CODEGEN, Trace.DEBUG)) Trace.log(Trace.CODEGEN, "[CG] IndexVar: " + exp.name);
         try {
             String name = exp.name;
 
-            SymbolEntry entry = symbolTable.lookup(name);
-            System.out.println("[DEBUG] Lookup '" + name + "' => offset=" + entry.offset + " scope=" + entry.scope);
+            VarDec dec = exp.vardec;
+            if (Trace.on(Trace.CODEGEN, Trace.DEBUG)) Trace.log(Trace.CODEGEN, "[DEBUG] Resolved '" + name + "' => offset=" + dec.offset + " level=" + dec.nestLevel);
             tm.emitComment("-> lookup Array:" + name );
 
-            int baseReg = entry.scope == 0 ? GP : FP;
+            int baseReg = dec.nestLevel == 0 ? GP : FP;
 
-            tm.emitRM("LDA", AC, entry.offset, baseReg, "Get address of variable '" + name + "'");
+            tm.emitRM("LDA", AC, dec.offset, baseReg, "Get address of variable '" + name + "'");
             tm.emitRM("ST",AC,currentLocalOffset,FP,"Store Address");
 
             //Get the value of index, should be stored in AC
@@ -543,7 +800,7 @@ public class CodeGenerator implements AbsynVisitor {
 	
 	@Override
 	public void visit(NameTy exp, int level, boolean isAddr) {
-		System.out.println("[CG] NameTy: " + exp.getTypeName(exp.type));
+		if (Trace.on(Trace.CODEGEN, Trace.DEBUG)) Trace.log(Trace.CODEGEN, "[CG] NameTy: " + exp.getTypeName(exp.type));
 		try {
 			tm.emitComment("Type: " + exp.getTypeName(exp.type));
 		} catch (IOException e) {
@@ -554,19 +811,19 @@ public class CodeGenerator implements AbsynVisitor {
     @Override
     //done
     public void visit(SimpleVar exp, int level, boolean isAddr) {
-        System.out.println("[CG] SimpleVar: " + exp.name);
+        if (Trace.on(Trace.CODEGEN, Trace.DEBUG)) Trace.log(Trace.CODEGEN, "[CG] SimpleVar: " + exp.name);
         try {
             tm.emitComment("-> id");
-            SymbolEntry entry = symbolTable.lookup(exp.name);
-            if (entry == null) {
+            VarDec dec = exp.vardec;
+            if (dec == null) {
                 tm.emitComment("[ERROR] Undeclared variable: " + exp.name);
                 return;
             }
-            int baseReg = entry.scope == 0 ? GP : FP;
+            int baseReg = dec.nestLevel == 0 ? GP : FP;
             if (isAddr) {
-                tm.emitRM("LDA", AC, entry.offset, baseReg, "Get address of variable '" + exp.name + "'");
+                tm.emitRM("LDA", AC, dec.offset, baseReg, "Get address of variable '" + exp.name + "'");
             } else {
-                tm.emitRM("LD", AC, entry.offset, baseReg, "Load value of variable '" + exp.name + "'");
+                tm.emitRM("LD", AC, dec.offset, baseReg, "Load value of variable '" + exp.name + "'");
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -576,24 +833,26 @@ public class CodeGenerator implements AbsynVisitor {
 	
     @Override
     public void visit(WhileExp exp, int level, boolean isAddr) {
-        System.out.println("[CG] WhileExp");
+        if (Trace.on(Trace.CODEGEN, Trace.DEBUG)) Trace.log(Trace.CODEGEN, "[CG] WhileExp");
         try {
             tm.emitComment("-> while");
             tm.emitComment("while: evaluate condition");
             int savedLoc = tm.emitSkip(0);
 
-            exp.test.accept(this, level, false);
-            tm.emitComment("while: jump to end belongs here");
+            List<PendingJump> exits = new ArrayList<>();
+            if (conditionLowering) {
+                genCondition(exp.test, level, false, exits);
+            } else {
+                exp.test.accept(this, level, false);
+                tm.emitComment("while: jump to end belongs here");
+                exits.add(new PendingJump(tm.emitSkip(1), "JEQ"));
+            }
 
-            int savedLoc2 = tm.emitSkip(1);
             tm.emitComment("while: begin loop body");
             exp.body.accept(this, level, false);
             tm.emitRM_Abs("LDA", PC, savedLoc, "while: jump back to test");
 
-            int savedLoc3 = tm.getCurrentLoc();
-            tm.emitBackup(savedLoc2);
-            tm.emitRM_Abs("JEQ", 0, savedLoc3, "while: exit loop if false");
-            tm.emitRestore();
+            patchJumps(exits, tm.getCurrentLoc());
             tm.emitComment("<- while");
         } catch (IOException e) {
             e.printStackTrace();
@@ -602,7 +861,7 @@ public class CodeGenerator implements AbsynVisitor {
     
 	@Override
 	public void visit(NilExp exp, int level, boolean isAddr) {
-		System.out.println("[CG] NilExp");
+		if (Trace.on(Trace.CODEGEN, Trace.DEBUG)) Trace.log(Trace.CODEGEN, "[CG] NilExp");
 		try {
 			tm.emitComment("Nil Expression: no operation");
 		} catch (IOException e) {
@@ -612,7 +871,7 @@ public class CodeGenerator implements AbsynVisitor {
 	
 	@Override
 	public void visit(ReturnExp exp, int level, boolean isAddr) {
-		System.out.println("[CG] ReturnExp");
+		if (Trace.on(Trace.CODEGEN, Trace.DEBUG)) Trace.log(Trace.CODEGEN, "[CG] ReturnExp");
 		try {
 			if(exp.exp != null) {
 				exp.exp.accept(this, level, false);
@@ -625,7 +884,7 @@ public class CodeGenerator implements AbsynVisitor {
     
     @Override
     public void visit(CallExp exp, int level, boolean isAddr) {
-        System.out.println("[CG] CallExp: " + exp.func);
+        if (Trace.on(Trace.CODEGEN, Trace.DEBUG)) Trace.log(Trace.CODEGEN, "[CG] CallExp: " + exp.func);
         try {
             tm.emitComment("Call function: " + exp.func);
     
@@ -646,9 +905,9 @@ public class CodeGenerator implements AbsynVisitor {
             tm.emitRM("ST", FP, currentLocalOffset, FP, "push ofp");
             tm.emitRM("LDA", FP, currentLocalOffset, FP, "Push frame");
             tm.emitRM("LDA", 0, 1, PC, "Load ac with ret ptr");
-            SymbolEntry f = symbolTable.lookup(exp.func);
+            FunctionDec f = exp.funcDef;
             if (f != null) {
-                tm.emitRM_Abs("LDA", PC, f.pc, "jump to fun loc");
+                tm.emitRM_Abs("LDA", PC, functionAddress(f), "jump to fun loc");
             } else {
                 tm.emitComment("[ERROR] Function " + exp.func + " not found in symbol table");
             }
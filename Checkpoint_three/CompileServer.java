@@ -0,0 +1,196 @@
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import diag.Diagnostic;
+import trace.Trace;
+
+/*
+  A long-running compiler for editors and test runners. It keeps one JVM
+  (and its warmed-up JIT) across requests instead of paying JVM startup for
+  every file.
+
+    java -cp /usr/share/java/cup.jar:. CompileServer              requests on stdin, replies on stdout
+    java -cp /usr/share/java/cup.jar:. CompileServer /tmp/cm.sock  requests on a Unix domain socket
+
+  Requests are lines. The flags are the ones Main takes: -a (tree), -s (symbol
+  tables), -c (TM code), -O and -ir. Nothing is written to disk; the outputs asked
+  for come back in the reply.
+
+    compile [flags] path    compile the file at 'path'
+    source [flags] name     compile the lines that follow, up to a line that is
+                            just "."; a source line starting with "." is sent
+                            with one extra "." in front
+    quit                    close the connection (on stdin: stop the server)
+
+  Every request gets one reply:
+
+    result ok|errors|failed milliseconds
+    error message           one line per parse or semantic error
+    abs n / sym n / tm n    followed by n lines of output, for -a / -s / -c
+    end
+
+  In socket mode each connection is served on its own thread, so several
+  clients can compile at the same time.
+*/
+public class CompileServer {
+
+    public static void main(String[] argv) throws Exception {
+        String traceSpec = Main.argValue("-trace=", argv);
+        if (traceSpec != null && !Trace.configure(traceSpec)) {
+            System.err.println("Unknown -trace setting: " + traceSpec);
+        }
+        String socketPath = null;
+        for (String arg : argv) {
+            if (!arg.startsWith("-")) socketPath = arg;
+        }
+
+        if (socketPath == null) {
+            // stdout carries the replies, so traces go to stderr
+            Trace.setOutput(System.err);
+            Thread worker = CminusCompiler.threadFactory("cminus-server-").newThread(() -> {
+                try {
+                    serve(System.in, System.out);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+            worker.start();
+            worker.join();
+        } else {
+            listen(Path.of(socketPath));
+        }
+    }
+
+    private static void listen(Path socketPath) throws IOException {
+        Files.deleteIfExists(socketPath);
+        ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(socketPath));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                Files.deleteIfExists(socketPath);
+            } catch (IOException e) {
+                // nothing left to do on the way out
+            }
+        }));
+        System.err.println("CompileServer listening on " + socketPath);
+
+        ExecutorService connections = Executors.newCachedThreadPool(CminusCompiler.threadFactory("cminus-server-"));
+        while (true) {
+            SocketChannel client = server.accept();
+            connections.submit(() -> {
+                try (client) {
+                    serve(Channels.newInputStream(client), Channels.newOutputStream(client));
+                } catch (IOException e) {
+                    System.err.println("CompileServer: " + e.getMessage());
+                }
+                return null;
+            });
+        }
+    }
+
+    // Answer requests from 'input' until it ends or a quit request arrives.
+    static void serve(InputStream input, OutputStream output) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        Writer out = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+        String line;
+        while ((line = in.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty()) continue;
+            if (line.equals("quit")) break;
+            reply(out, handle(line, in));
+            out.flush();
+        }
+        out.flush();
+    }
+
+    private static CminusCompiler.Result handle(String request, BufferedReader in) throws IOException {
+        String[] words = request.split("\\s+");
+        // a source request's body is read first, so a bad request still consumes it up to the '.'
+        String body = words[0].equals("source") ? readBody(in) : null;
+        CminusCompiler compiler = new CminusCompiler();
+        compiler.setEchoErrors(false);
+        compiler.setGenerateCode(false);
+        int i = 1;
+        for (; i < words.length && words[i].startsWith("-"); i++) {
+            switch (words[i]) {
+                case "-a": compiler.setWriteTree(true); break;
+                case "-s": compiler.setWriteTree(true); compiler.setWriteSymbols(true); break;
+                case "-c": compiler.setGenerateCode(true); break;
+                case "-O": compiler.setOptimize(true); break;
+                case "-ir": compiler.setUseIR(true); break;
+                default: return failed(request, "unknown flag " + words[i]);
+            }
+        }
+        String name = String.join(" ", Arrays.copyOfRange(words, i, words.length));
+
+        switch (words[0]) {
+            case "source":
+                return compiler.compileText(name, body);
+            case "compile": {
+                String text;
+                try {
+                    text = Files.readString(Path.of(name));
+                } catch (IOException e) {
+                    return failed(name, "cannot read " + name + ": " + e.getMessage());
+                }
+                return compiler.compileText(name, text);
+            }
+            default:
+                return failed(request, "unknown request " + words[0]);
+        }
+    }
+
+    // Lines up to a lone '.'; a leading '.' on any other line is dropped (it escapes a line starting with '.').
+    private static String readBody(BufferedReader in) throws IOException {
+        StringBuilder text = new StringBuilder();
+        String line;
+        while ((line = in.readLine()) != null && !line.equals(".")) {
+            if (line.startsWith(".")) line = line.substring(1);
+            text.append(line).append('\n');
+        }
+        return text.toString();
+    }
+
+    private static CminusCompiler.Result failed(String source, String message) {
+        CminusCompiler.Result result = new CminusCompiler.Result(source);
+        result.failure = new IllegalArgumentException(message);
+        return result;
+    }
+
+    private static void reply(Writer out, CminusCompiler.Result result) throws IOException {
+        String status = result.failure != null ? "failed" : result.succeeded() ? "ok" : "errors";
+        out.write(String.format("result %s %.2f\n", status, result.elapsedNanos / 1e6));
+        for (Diagnostic diagnostic : result.diagnostics) {
+            out.write("error " + diagnostic.render() + "\n");
+        }
+        if (result.failure != null) {
+            String message = result.failure.getMessage();
+            out.write("error " + (message != null ? message : result.failure.toString()) + "\n");
+        }
+        block(out, "abs", result.treeOutput);
+        block(out, "sym", result.symbolOutput);
+        block(out, "tm", result.codeOutput);
+        out.write("end\n");
+    }
+
+    private static void block(Writer out, String kind, String text) throws IOException {
+        if (text == null) return;
+        String[] lines = text.isEmpty() ? new String[0] : text.split("\n", -1);
+        int count = lines.length;
+        if (count > 0 && lines[count - 1].isEmpty()) count--;
+        out.write(kind + " " + count + "\n");
+        for (int i = 0; i < count; i++) {
+            out.write(lines[i]);
+            out.write('\n');
+        }
+    }
+}
@@ -0,0 +1,227 @@
+import absyn.*;
+
+/*
+  Optimization pass run between semantic analysis and code generation.
+  Folds OpExp subtrees whose operands are constants and applies simple
+  algebraic identities (x+0, x*1, x*0, ...). Subtrees are replaced in place,
+  so every visit leaves the replacement for the node it was called on in
+  'result'.
+*/
+public class ConstantFolder implements AbsynVisitor {
+
+    private Exp result;
+    private int folded = 0;
+
+    // Number of OpExp nodes that were folded away.
+    public int getFoldedCount() {
+        return folded;
+    }
+
+    private Exp fold(Exp exp) {
+        if (exp == null) return null;
+        result = exp;
+        exp.accept(this, 0, false);
+        return result;
+    }
+
+    private void foldList(ExpList list) {
+        while (list != null) {
+            list.head = fold(list.head);
+            list = list.tail;
+        }
+    }
+
+    @Override public void visit(DecList node, int level, boolean flag) {
+        while (node != null) {
+            if (node.head != null) node.head.accept(this, level, flag);
+            node = node.tail;
+        }
+    }
+
+    @Override public void visit(FunctionDec node, int level, boolean flag) {
+        node.body = fold(node.body);
+    }
+
+    @Override public void visit(CompoundExp node, int level, boolean flag) {
+        foldList(node.exps);
+        result = node;
+    }
+
+    @Override public void visit(ExpList node, int level, boolean flag) {
+        foldList(node);
+    }
+
+    @Override public void visit(AssignExp node, int level, boolean flag) {
+        fold(node.lhs);
+        node.rhs = fold(node.rhs);
+        result = node;
+    }
+
+    @Override public void visit(IfExp node, int level, boolean flag) {
+        node.test = fold(node.test);
+        foldList(node.thenpart);
+        foldList(node.elsepart);
+        result = node;
+    }
+
+    @Override public void visit(WhileExp node, int level, boolean flag) {
+        node.test = fold(node.test);
+        node.body = fold(node.body);
+        result = node;
+    }
+
+    @Override public void visit(RepeatExp node, int level, boolean flag) {
+        foldList(node.exps);
+        node.test = fold(node.test);
+        result = node;
+    }
+
+    @Override public void visit(ReturnExp node, int level, boolean flag) {
+        node.exp = fold(node.exp);
+        result = node;
+    }
+
+    @Override public void visit(WriteExp node, int level, boolean flag) {
+        node.output = fold(node.output);
+        result = node;
+    }
+
+    @Override public void visit(CallExp node, int level, boolean flag) {
+        foldList(node.args);
+        result = node;
+    }
+
+    @Override public void visit(VarExp node, int level, boolean flag) {
+        if (node.variable instanceof IndexVar indexVar) {
+            indexVar.index = fold(indexVar.index);
+        }
+        result = node;
+    }
+
+    @Override public void visit(OpExp node, int level, boolean flag) {
+        node.left = fold(node.left);
+        node.right = fold(node.right);
+        Exp replacement = simplify(node);
+        if (replacement != node) folded++;
+        result = replacement;
+    }
+
+    private Exp simplify(OpExp node) {
+        Exp left = node.left;
+        Exp right = node.right;
+
+        if (left instanceof NilExp) {
+            if (node.op == OpExp.UMINUS) {
+                if (isInt(right)) return intExp(node, -intValue(right));
+                if (right instanceof OpExp inner && inner.op == OpExp.UMINUS && inner.left instanceof NilExp) return inner.right;
+            } else if (node.op == OpExp.NOT) {
+                if (right instanceof BoolExp b) return boolExp(node, !b.value);
+                if (right instanceof OpExp inner && inner.op == OpExp.NOT && inner.left instanceof NilExp) return inner.right;
+            }
+            return node;
+        }
+
+        if (isInt(left) && isInt(right)) {
+            int l = intValue(left);
+            int r = intValue(right);
+            switch (node.op) {
+                case OpExp.PLUS:   return intExp(node, l + r);
+                case OpExp.MINUS:  return intExp(node, l - r);
+                case OpExp.TIMES:  return intExp(node, l * r);
+                case OpExp.DIVIDE: return r == 0 ? node : intExp(node, l / r);
+                case OpExp.EQ:     return boolExp(node, l == r);
+                case OpExp.NEQ:    return boolExp(node, l != r);
+                case OpExp.LT:     return boolExp(node, l < r);
+                case OpExp.GT:     return boolExp(node, l > r);
+                case OpExp.LTE:    return boolExp(node, l <= r);
+                case OpExp.GTE:    return boolExp(node, l >= r);
+            }
+            return node;
+        }
+
+        if (left instanceof BoolExp l && right instanceof BoolExp r) {
+            switch (node.op) {
+                case OpExp.AND: return boolExp(node, l.value && r.value);
+                case OpExp.OR:  return boolExp(node, l.value || r.value);
+                case OpExp.EQ:  return boolExp(node, l.value == r.value);
+                case OpExp.NEQ: return boolExp(node, l.value != r.value);
+            }
+            return node;
+        }
+
+        switch (node.op) {
+            case OpExp.PLUS:
+                if (isInt(right, 0)) return left;
+                if (isInt(left, 0)) return right;
+                break;
+            case OpExp.MINUS:
+                if (isInt(right, 0)) return left;
+                break;
+            case OpExp.TIMES:
+                if (isInt(right, 1)) return left;
+                if (isInt(left, 1)) return right;
+                if (isInt(right, 0) && isPure(left)) return right;
+                if (isInt(left, 0) && isPure(right)) return left;
+                break;
+            case OpExp.DIVIDE:
+                if (isInt(right, 1)) return left;
+                break;
+            case OpExp.AND:
+                // the right operand is only evaluated when the left one is true
+                if (left instanceof BoolExp b) return b.value ? right : left;
+                if (right instanceof BoolExp b && (b.value || isPure(left))) return b.value ? left : right;
+                break;
+            case OpExp.OR:
+                if (left instanceof BoolExp b) return b.value ? left : right;
+                if (right instanceof BoolExp b && (!b.value || isPure(left))) return b.value ? right : left;
+                break;
+        }
+        return node;
+    }
+
+    private boolean isInt(Exp exp) {
+        return exp instanceof IntExp;
+    }
+
+    private boolean isInt(Exp exp, int value) {
+        return isInt(exp) && intValue(exp) == value;
+    }
+
+    private int intValue(Exp exp) {
+        return ((IntExp) exp).value;
+    }
+
+    private IntExp intExp(Exp at, int value) {
+        return new IntExp(at.row, at.col, value);
+    }
+
+    private BoolExp boolExp(Exp at, boolean value) {
+        return new BoolExp(at.row, at.col, value ? "true" : "false");
+    }
+
+    // An expression can be dropped only if evaluating it has no side effects
+    // and cannot trap: it calls no function (input() included), divides only
+    // by a nonzero constant, and reads no array element (the index check).
+    private boolean isPure(Exp exp) {
+        if (exp == null || exp instanceof IntExp || exp instanceof BoolExp || exp instanceof NilExp) return true;
+        if (exp instanceof OpExp node) {
+            if ((node.op == OpExp.OVER || node.op == OpExp.DIVIDE) && !(isInt(node.right) && intValue(node.right) != 0)) {
+                return false;
+            }
+            return isPure(node.left) && isPure(node.right);
+        }
+        if (exp instanceof VarExp varExp) return varExp.variable instanceof SimpleVar;
+        return false;
+    }
+
+    @Override public void visit(IntExp node, int level, boolean flag) { result = node; }
+    @Override public void visit(BoolExp node, int level, boolean flag) { result = node; }
+    @Override public void visit(NilExp node, int level, boolean flag) { result = node; }
+    @Override public void visit(ReadExp node, int level, boolean flag) { result = node; }
+    @Override public void visit(SimpleVar node, int level, boolean flag) {}
+    @Override public void visit(IndexVar node, int level, boolean flag) {}
+    @Override public void visit(NameTy node, int level, boolean flag) {}
+    @Override public void visit(SimpleDec node, int level, boolean flag) {}
+    @Override public void visit(ArrayDec node, int level, boolean flag) {}
+    @Override public void visit(VarDecList node, int level, boolean flag) {}
+}
@@ -0,0 +1,288 @@
+import java.io.*;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import ir.Block;
+import ir.Function;
+import ir.Instr;
+import ir.Program;
+import ir.SlotAllocator;
+import trace.Trace;
+
+/*
+  TM backend for the IR (-ir). Keeps CodeGenerator's runtime conventions:
+  GP holds the top of memory and globals count down from 0(GP); a frame
+  holds the caller's FP at 0(FP), the return address at -1(FP), then the
+  parameters and local arrays. Every virtual register gets a frame slot
+  below those (shared between registers that are never live together when
+  slot coloring is on), and each instruction loads its operands into
+  AC/AC1, computes, and stores the result back.
+
+  main's frame starts right below the globals. Blocks are laid out in the
+  Function's order, so a jump to the next block is left out; jumps to blocks
+  and calls are emitted as skipped slots and backpatched once their target
+  is known.
+*/
+public class IRCodeGenerator {
+
+    private static final int AC = 0;
+    private static final int AC1 = 1;
+    private static final int FP = 5;
+    private static final int GP = 6;
+    private static final int PC = 7;
+
+    private static final String[] ARITHMETIC = { "ADD", "SUB", "MUL", "DIV" };
+    private static final String[] JUMPS = { "JEQ", "JNE", "JLT", "JLE", "JGT", "JGE" };
+
+    // A jump slot to fill in once the location of its block or function is known.
+    private record PendingJump(int loc, String opcode, int reg, Object target) {}
+
+    private final TMWriter tm;
+    private PeepholeOptimizer peephole;
+    private boolean slotColoring = false;
+    private final Map<Object, Integer> addresses = new IdentityHashMap<>();
+    private final List<PendingJump> calls = new ArrayList<>();
+
+    // frame layout of the function being emitted
+    private int registerBase;
+    private int[] slots;
+    private int frameTop;
+    private final List<PendingJump> jumps = new ArrayList<>();
+    // remark for the next emitted instruction: the IR instruction it comes from
+    private String remark = "";
+
+    public IRCodeGenerator(Writer out) {
+        this.tm = new TMWriter(out);
+    }
+
+    // Load the generated code into an in-process TM machine as well.
+    public void setMachine(TMMachine machine) {
+        tm.setMachine(machine);
+    }
+
+    // Run a peephole pass over the generated code before it is written.
+    public void setPeephole(PeepholeOptimizer peephole) {
+        this.peephole = peephole;
+    }
+
+    // Let registers whose lifetimes do not overlap share a frame slot (ir.SlotAllocator).
+    public void setSlotColoring(boolean slotColoring) {
+        this.slotColoring = slotColoring;
+    }
+
+    public void generate(Program program) throws IOException {
+        if (program.main == null) throw new IllegalStateException("no main function");
+        if (Trace.on(Trace.CODEGEN, Trace.INFO)) Trace.log(Trace.CODEGEN, "[IR]\n" + program);
+
+        tm.emitComment("Standard prelude:");
+        tm.emitRM("LD", GP, 0, AC, "load gp with maxaddress");
+        tm.emitRM("LDA", FP, -program.globalSize, GP, "main's frame starts below the globals");
+        tm.emitRM("ST", AC, 0, AC, "clear location 0");
+        tm.emitRM("ST", FP, 0, FP, "push ofp");
+        tm.emitRM("LDA", AC, 1, PC, "load ac with ret ptr");
+        calls.add(new PendingJump(tm.emitSkip(1), "LDA", PC, program.main));
+        tm.emitRO("HALT", 0, 0, 0, "");
+        tm.emitComment("End of standard prelude.");
+
+        for (Function function : program.functions) emitFunction(function);
+        patch(calls, "jump to fun loc");
+
+        if (peephole != null) peephole.optimize(tm);
+        tm.close();
+    }
+
+    private void emitFunction(Function function) throws IOException {
+        registerBase = -function.frameSize;
+        if (slotColoring) {
+            SlotAllocator allocator = new SlotAllocator(function);
+            slots = allocator.slots;
+            frameTop = registerBase - allocator.slotCount;
+        } else {
+            slots = new int[function.regCount];
+            for (int r = 0; r < slots.length; r++) slots[r] = r;
+            frameTop = registerBase - function.regCount;
+        }
+        jumps.clear();
+
+        tm.emitComment("Function " + function.name);
+        addresses.put(function, tm.getCurrentLoc());
+        tm.emitRM("ST", AC, -1, FP, "store return address");
+        List<Block> blocks = function.blocks;
+        for (int i = 0; i < blocks.size(); i++) {
+            Block block = blocks.get(i);
+            Block next = i + 1 < blocks.size() ? blocks.get(i + 1) : null;
+            addresses.put(block, tm.getCurrentLoc());
+            tm.emitComment("B" + block.id);
+            for (Instr instr : block.instrs) {
+                remark = instr.toString();
+                emit(instr, next);
+            }
+        }
+        patch(jumps, "jump to block");
+        tm.emitComment("<- Function: " + function.name);
+    }
+
+    private int slot(int reg) {
+        return registerBase - slots[reg];
+    }
+
+    private void rm(String opcode, int r, int d, int s) throws IOException {
+        tm.emitRM(opcode, r, d, s, remark);
+        remark = "";
+    }
+
+    private void ro(String opcode, int r, int s, int t) throws IOException {
+        tm.emitRO(opcode, r, s, t, remark);
+        remark = "";
+    }
+
+    private void load(int r, int reg) throws IOException {
+        rm("LD", r, slot(reg), FP);
+    }
+
+    private void store(int r, int reg) throws IOException {
+        rm("ST", r, slot(reg), FP);
+    }
+
+    private void emit(Instr instr, Block next) throws IOException {
+        switch (instr.op) {
+            case Instr.CONST:
+                rm("LDC", AC, instr.imm, 0);
+                store(AC, instr.dst);
+                return;
+            case Instr.COPY:
+                if (slots[instr.a] == slots[instr.dst]) return;
+                load(AC, instr.a);
+                store(AC, instr.dst);
+                return;
+            case Instr.ADD: case Instr.SUB: case Instr.MUL: case Instr.DIV:
+                load(AC, instr.a);
+                load(AC1, instr.b);
+                ro(ARITHMETIC[instr.op - Instr.ADD], AC, AC, AC1);
+                store(AC, instr.dst);
+                return;
+            case Instr.NEG:
+                load(AC1, instr.a);
+                rm("LDC", AC, 0, 0);
+                ro("SUB", AC, AC, AC1);
+                store(AC, instr.dst);
+                return;
+            case Instr.EQ: case Instr.NE: case Instr.LT: case Instr.LE: case Instr.GT: case Instr.GE:
+                load(AC, instr.a);
+                load(AC1, instr.b);
+                ro("SUB", AC, AC, AC1);
+                rm(jump(instr.op), AC, 2, PC);
+                rm("LDC", AC, 0, 0);
+                rm("LDA", PC, 1, PC);
+                rm("LDC", AC, 1, 0);
+                store(AC, instr.dst);
+                return;
+            case Instr.LDG:
+                rm("LD", AC, instr.imm, GP);
+                store(AC, instr.dst);
+                return;
+            case Instr.STG:
+                load(AC, instr.a);
+                rm("ST", AC, instr.imm, GP);
+                return;
+            case Instr.LDF:
+                rm("LD", AC, instr.imm, FP);
+                store(AC, instr.dst);
+                return;
+            case Instr.ADDRG:
+                rm("LDA", AC, instr.imm, GP);
+                store(AC, instr.dst);
+                return;
+            case Instr.ADDRF:
+                rm("LDA", AC, instr.imm, FP);
+                store(AC, instr.dst);
+                return;
+            case Instr.LDX:
+                load(AC, instr.a);
+                rm("LD", AC, 0, AC);
+                store(AC, instr.dst);
+                return;
+            case Instr.STX:
+                load(AC, instr.a);
+                load(AC1, instr.b);
+                rm("ST", AC, 0, AC1);
+                return;
+            case Instr.CHECK:
+                load(AC, instr.a);
+                rm("JGE", AC, 1, PC);
+                ro("HALT", 0, 0, 0);
+                return;
+            case Instr.IN:
+                ro("IN", AC, 0, 0);
+                store(AC, instr.dst);
+                return;
+            case Instr.OUT:
+                load(AC, instr.a);
+                ro("OUT", AC, 0, 0);
+                return;
+            case Instr.CALL:
+                emitCall(instr);
+                return;
+            case Instr.JUMP:
+                if (instr.target != next) jumps.add(new PendingJump(skip(), "LDA", PC, instr.target));
+                return;
+            case Instr.BR:
+                emitBranch(instr, next);
+                return;
+            case Instr.RET:
+                if (instr.a >= 0) load(AC, instr.a);
+                rm("LD", PC, -1, FP);
+                return;
+            default:
+                throw new IllegalStateException("unknown IR opcode " + instr.op);
+        }
+    }
+
+    private void emitCall(Instr instr) throws IOException {
+        for (int i = 0; i < instr.args.length; i++) {
+            load(AC, instr.args[i]);
+            rm("ST", AC, frameTop - 2 - i, FP);
+        }
+        rm("ST", FP, frameTop, FP);
+        rm("LDA", FP, frameTop, FP);
+        rm("LDA", AC, 1, PC);
+        calls.add(new PendingJump(skip(), "LDA", PC, instr.callee));
+        rm("LD", FP, 0, FP);
+        if (instr.dst >= 0) store(AC, instr.dst);
+    }
+
+    // Compare into AC, then jump to whichever target is not the next block (or to both).
+    private void emitBranch(Instr instr, Block next) throws IOException {
+        load(AC, instr.a);
+        if (instr.b >= 0) {
+            load(AC1, instr.b);
+            ro("SUB", AC, AC, AC1);
+        }
+        if (instr.target == next) {
+            jumps.add(new PendingJump(skip(), jump(Instr.negate(instr.imm)), AC, instr.otherwise));
+        } else {
+            jumps.add(new PendingJump(skip(), jump(instr.imm), AC, instr.target));
+            if (instr.otherwise != next) jumps.add(new PendingJump(skip(), "LDA", PC, instr.otherwise));
+        }
+    }
+
+    private static String jump(int relation) {
+        return JUMPS[relation - Instr.EQ];
+    }
+
+    // Leave one slot for a backpatched jump; it keeps the remark of the instruction it belongs to.
+    private int skip() throws IOException {
+        if (!remark.isEmpty()) tm.emitComment(remark);
+        remark = "";
+        return tm.emitSkip(1);
+    }
+
+    private void patch(List<PendingJump> pending, String comment) throws IOException {
+        for (PendingJump jump : pending) {
+            tm.emitBackup(jump.loc());
+            tm.emitRM_Abs(jump.opcode(), jump.reg(), addresses.get(jump.target()), comment);
+            tm.emitRestore();
+        }
+    }
+}
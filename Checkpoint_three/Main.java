@@ -1,8 +1,9 @@
-import java.io.*;
-import absyn.*;
-import Symbol.SemanticAnalyzer;
-import Symbol.SymbolTable;
-import Symbol.AnalyzerPrinter;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import diag.Diagnostic;
+import trace.Trace;
 
 class Main {
     public static final boolean DEBUG = true;
@@ -13,67 +14,169 @@ class Main {
         boolean aArg = false;
         boolean sArg = false;
         boolean cArg = false;
+        boolean rArg = false;
+        boolean oArg = false;
+        boolean irArg = false;
 
-        String aFilename = modifyFileName(argv[0], ".abs");
-        String sFilename = modifyFileName(argv[0], ".sym");
-        String cFilename = modifyFileName(argv[0], ".tm");
+        String traceSpec = argValue("-trace=", argv);
+        if (traceSpec != null && !Trace.configure(traceSpec)) {
+            System.err.println("Unknown -trace setting: " + traceSpec + " (categories: lexer, parser, semantic, codegen, driver, all; levels: off, info, debug)");
+        }
 
         aArg = checkForArg("-a", argv);
         sArg = checkForArg("-s", argv);
         cArg = checkForArg("-c", argv);
+        rArg = checkForArg("-r", argv);
+        oArg = checkForArg("-O", argv);
+        irArg = checkForArg("-ir", argv);
 
         if (sArg) aArg = true;
+        if (rArg) cArg = true;
 
-        AnalyzerPrinter aPrinter = new AnalyzerPrinter(aFilename, aArg);
-        AnalyzerPrinter sPrinter = new AnalyzerPrinter(sFilename, sArg);
+        CminusCompiler compiler = new CminusCompiler();
+        compiler.setWriteTree(aArg);
+        compiler.setWriteSymbols(sArg);
+        compiler.setGenerateCode(cArg);
+        compiler.setOptimize(oArg);
+        compiler.setUseIR(irArg);
 
-        try {
-            parser p = new parser(new Lexer(new FileReader(argv[0])));
-            Absyn result = (Absyn) (p.parse().value);
+        String diagFormat = argValue("-diag=", argv);
+        boolean json = "json".equals(diagFormat);
+        if (diagFormat != null && !json && !diagFormat.equals("text")) {
+            System.err.println("Unknown -diag setting: " + diagFormat + " (text or json)");
+        }
+        compiler.setJsonDiagnostics(json);
+        String maxErrors = argValue("-max-errors=", argv);
+        if (maxErrors != null) compiler.setErrorLimit(Integer.parseInt(maxErrors));
 
-            if (result != null) {
-                if (SHOW_TREE) {
-                    AbsynVisitor visitor = new ShowTreeVisitor(aPrinter);
-                    result.accept(visitor, 0, false);
-                    if (aArg) aPrinter.close();
-                }
+        // several files or a directory: compile them all in this JVM and print one summary
+        List<String> sources = sourceFiles(argv);
+        if (sources.isEmpty()) {
+            System.err.println("Usage: java Main file.cm... | directory [-a] [-s] [-c] [-r] [-O] [-ir] [-j=threads] [-diag=text|json] [-max-errors=N] [-trace=spec]");
+            System.exit(1);
+        }
+        if (sources.size() != 1 || new File(argv[0]).isDirectory()) {
+            if (rArg) System.err.println("-r is ignored when compiling more than one file");
+            String threads = argValue("-j=", argv);
+            int count = threads != null ? Integer.parseInt(threads) : Runtime.getRuntime().availableProcessors();
+            System.exit(compileBatch(compiler, sources, count, json) ? 0 : 1);
+        }
+
+        TMMachine machine = rArg ? new TMMachine() : null;
+        CminusCompiler.Result result = compiler.compile(sources.get(0), machine);
+        if (result.failure != null) {
+            result.failure.printStackTrace();
+            return;
+        }
+        if (result.aborted) System.exit(1);
+        if (result.generated && oArg) {
+            System.out.println("Peephole: removed " + result.removedInstructions + " instructions");
+        }
+        if (result.generated && machine != null) {
+            try {
+                int status = machine.run();
+                System.out.println(TMMachine.RESULT_NAMES[status]);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
 
-                if (p.valid) {
-                    if (RUN_SEMANTIC_ANALYSIS || cArg) {
-                        sPrinter.printMsg("\nStarting Semantic Analysis...");
-                        SemanticAnalyzer analyzer = new SemanticAnalyzer(sPrinter);
-                        analyzer.analyze((DecList) result);
-                        sPrinter.printMsg("Semantic Analysis Completed.");
-                        if (sArg) sPrinter.close();
-                        if (cArg) {
-                            CodeGenerator generator = new CodeGenerator(cFilename);
-                            generator.visit(result);
-                        }
-                    }
+    /*
+      Compile every file on a thread pool, then print the files in order with
+      their status, time and errors, and a total. Text errors are held back for
+      the summary; JSON lines carry the file name, so they are streamed to
+      stderr as they are found instead. Returns true if every file compiled
+      cleanly.
+    */
+    private static boolean compileBatch(CminusCompiler compiler, List<String> sources, int threads, boolean json) {
+        compiler.setEchoErrors(json);
+        long start = System.nanoTime();
+        List<CminusCompiler.Result> results;
+        try {
+            results = compiler.compileAll(sources, Math.max(1, threads));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        long elapsed = System.nanoTime() - start;
 
-                } else {
-                    System.out.println("Errors were found in parsing, semantic analysis not started.");
+        int ok = 0, withErrors = 0, failed = 0;
+        long compileTime = 0;
+        for (CminusCompiler.Result result : results) {
+            String status;
+            if (result.failure != null) {
+                status = "FAILED";
+                failed++;
+            } else if (result.succeeded()) {
+                status = "ok";
+                ok++;
+            } else {
+                status = "errors";
+                withErrors++;
+            }
+            compileTime += result.elapsedNanos;
+            String line = String.format("%-7s %8.1f ms  %s", status, result.elapsedNanos / 1e6, result.source);
+            if (result.generated && result.removedInstructions > 0) {
+                line += "  (peephole removed " + result.removedInstructions + ")";
+            }
+            System.out.println(line);
+            if (!json) {
+                for (Diagnostic diagnostic : result.diagnostics) {
+                    System.out.println("        " + diagnostic.render());
                 }
             }
-        } catch (Exception e) {
-            e.printStackTrace();
+            if (result.failure != null) {
+                System.out.println("        " + result.failure);
+            }
         }
+        System.out.printf("%d files: %d ok, %d with errors, %d failed; %.1f ms wall, %.1f ms compiling on %d threads%n",
+            results.size(), ok, withErrors, failed, elapsed / 1e6, compileTime / 1e6, Math.max(1, threads));
+        return withErrors == 0 && failed == 0;
+    }
+
+    // The non-option arguments, with each directory replaced by the .cm files in it.
+    private static List<String> sourceFiles(String[] argv) {
+        List<String> sources = new ArrayList<>();
+        for (String arg : argv) {
+            if (arg.startsWith("-")) continue;
+            File file = new File(arg);
+            if (file.isDirectory()) {
+                File[] files = file.listFiles((dir, name) -> name.endsWith(".cm"));
+                if (files == null) continue;
+                Arrays.sort(files);
+                for (File f : files) sources.add(f.getPath());
+            } else {
+                sources.add(arg);
+            }
+        }
+        return sources;
     }
 
     public static boolean checkForArg(String argCheck, String[] argv){
         for (String arg : argv) {
             if(argCheck.equals(arg)){
-                System.out.println("Found:" + arg);
+                if (Trace.on(Trace.DRIVER, Trace.INFO)) Trace.log(Trace.DRIVER, "Found:" + arg);
                 return true;
             }
         }
         return false;
     }
 
+    // Value of an option written as prefix+value (e.g. -trace=codegen), or null if absent.
+    public static String argValue(String prefix, String[] argv){
+        for (String arg : argv) {
+            if (arg.startsWith(prefix)) {
+                return arg.substring(prefix.length());
+            }
+        }
+        return null;
+    }
+
     public static String modifyFileName(String fileName, String Extension){
         int dotIndex = fileName.lastIndexOf(".");
         if (dotIndex != -1) {
-            System.out.println("Changing to file" + fileName.substring(0, dotIndex) + Extension);
+            if (Trace.on(Trace.DRIVER, Trace.INFO)) Trace.log(Trace.DRIVER, "Changing to file" + fileName.substring(0, dotIndex) + Extension);
             return fileName.substring(0, dotIndex) + Extension;
         } else {
             System.out.println("Could not find file extension.");
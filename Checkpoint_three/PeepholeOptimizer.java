@@ -0,0 +1,173 @@
+import java.util.EnumSet;
+
+/*
+  Peephole pass over the TM code buffered in a TMWriter, run before the code
+  is written out. Every pass slides a small window over the instructions and
+  applies the enabled rules. Removed instructions are then squeezed out, and
+  every PC-relative operand is relocated. Passes repeat until nothing changes.
+
+  Any instruction of the form op r,d(PC) is treated as a reference to loc+1+d.
+  This covers jumps as well as the "LDA AC,1(PC)" return addresses, so code
+  that is referenced this way is never removed or merged into its neighbour.
+*/
+public class PeepholeOptimizer {
+
+    public enum Rule {
+        STORE_LOAD,     // ST r,k(b); LD r,k(b)   -> drop the LD
+        NOP,            // LDA r,0(r), jumps to the next instruction
+        JUMP_CHAIN,     // jump to an unconditional jump -> jump to its target
+        DEAD_CONSTANT,  // LDC r,x; LDC r,y        -> drop the first LDC
+        UNREACHABLE     // code after an unconditional jump that nothing refers to
+    }
+
+    private static final int PC = 7;
+    private static final int MAX_PASSES = 50;
+    private static final int NONE = Integer.MIN_VALUE;
+
+    private final EnumSet<Rule> rules;
+    private int removed = 0;
+
+    public PeepholeOptimizer() {
+        this(EnumSet.allOf(Rule.class));
+    }
+
+    public PeepholeOptimizer(EnumSet<Rule> rules) {
+        this.rules = rules;
+    }
+
+    // Number of instructions removed so far.
+    public int getRemovedCount() {
+        return removed;
+    }
+
+    public void optimize(TMWriter tm) {
+        for (int pass = 0; pass < MAX_PASSES; pass++) {
+            if (!runPass(tm)) break;
+        }
+    }
+
+    private boolean runPass(TMWriter tm) {
+        int size = tm.getHighEmitLoc();
+        int[] target = new int[size];
+        boolean[] referenced = new boolean[size + 1];
+        for (int loc = 0; loc < size; loc++) {
+            target[loc] = NONE;
+            if (tm.isEmitted(loc) && isPcRelative(tm, loc)) {
+                target[loc] = loc + 1 + tm.getArg2(loc);
+                if (target[loc] >= 0 && target[loc] <= size) referenced[target[loc]] = true;
+            }
+        }
+
+        boolean changed = false;
+        boolean[] remove = new boolean[size];
+
+        if (rules.contains(Rule.JUMP_CHAIN)) {
+            for (int loc = 0; loc < size; loc++) {
+                if (!isJump(tm, loc)) continue;
+                int dest = finalTarget(tm, target, target[loc]);
+                if (dest != target[loc]) {
+                    target[loc] = dest;
+                    changed = true;
+                }
+            }
+        }
+
+        for (int loc = 0; loc < size; loc++) {
+            if (!tm.isEmitted(loc)) continue;
+            int op = tm.getOpcode(loc);
+            int next = loc + 1;
+
+            if (rules.contains(Rule.NOP)) {
+                boolean selfLoad = op == TMMachine.LDA && tm.getArg1(loc) != PC
+                        && tm.getArg2(loc) == 0 && tm.getArg1(loc) == tm.getArg3(loc);
+                boolean jumpToNext = isJump(tm, loc) && target[loc] == next;
+                if (selfLoad || jumpToNext) {
+                    remove[loc] = true;
+                    continue;
+                }
+            }
+
+            if (next < size && tm.isEmitted(next) && !referenced[next]) {
+                int nextOp = tm.getOpcode(next);
+                if (rules.contains(Rule.STORE_LOAD) && op == TMMachine.ST && nextOp == TMMachine.LD
+                        && sameOperands(tm, loc, next) && tm.getArg1(loc) != PC && tm.getArg3(loc) != PC) {
+                    // d(PC) names a different cell from each instruction, so only other bases match
+                    remove[next] = true;
+                }
+            }
+
+            if (rules.contains(Rule.DEAD_CONSTANT) && next < size && tm.isEmitted(next)
+                    && op == TMMachine.LDC && tm.getOpcode(next) == TMMachine.LDC
+                    && tm.getArg1(loc) == tm.getArg1(next) && tm.getArg1(loc) != PC) {
+                remove[loc] = true;
+            }
+
+            if (rules.contains(Rule.UNREACHABLE) && endsFlow(tm, loc)) {
+                for (int dead = next; dead < size && !referenced[dead] && tm.isEmitted(dead); dead++) {
+                    remove[dead] = true;
+                }
+            }
+        }
+
+        for (int loc = 0; loc < size; loc++) {
+            if (remove[loc]) {
+                changed = true;
+                removed++;
+            }
+        }
+        if (!changed) return false;
+
+        // old location -> new location; removed code maps to whatever follows it
+        int[] map = new int[size + 1];
+        int newLoc = 0;
+        for (int loc = 0; loc < size; loc++) {
+            map[loc] = newLoc;
+            if (!remove[loc]) newLoc++;
+        }
+        map[size] = newLoc;
+
+        tm.compact(remove, map);
+        for (int loc = 0; loc < size; loc++) {
+            if (remove[loc] || target[loc] == NONE) continue;
+            int at = map[loc];
+            int dest = target[loc] >= 0 && target[loc] <= size ? map[target[loc]] : target[loc];
+            tm.setInstruction(at, tm.getOpcode(at), tm.getArg1(at), dest - (at + 1), PC, tm.getRemark(at));
+        }
+        return true;
+    }
+
+    private boolean isPcRelative(TMWriter tm, int loc) {
+        return !TMMachine.isRegisterOnly(tm.getOpcode(loc)) && tm.getArg3(loc) == PC;
+    }
+
+    // A PC-relative instruction that transfers control.
+    private boolean isJump(TMWriter tm, int loc) {
+        if (!tm.isEmitted(loc) || !isPcRelative(tm, loc)) return false;
+        int op = tm.getOpcode(loc);
+        return op >= TMMachine.JLT || (op == TMMachine.LDA && tm.getArg1(loc) == PC);
+    }
+
+    private boolean isUnconditionalJump(TMWriter tm, int loc) {
+        return tm.isEmitted(loc) && tm.getOpcode(loc) == TMMachine.LDA
+                && tm.getArg1(loc) == PC && tm.getArg3(loc) == PC;
+    }
+
+    private int finalTarget(TMWriter tm, int[] target, int dest) {
+        for (int hops = 0; hops < target.length && dest >= 0 && dest < target.length
+                && isUnconditionalJump(tm, dest) && target[dest] != dest; hops++) {
+            dest = target[dest];
+        }
+        return dest;
+    }
+
+    // Control never falls through to the next instruction.
+    private boolean endsFlow(TMWriter tm, int loc) {
+        int op = tm.getOpcode(loc);
+        if (op == TMMachine.HALT) return true;
+        return (op == TMMachine.LDA || op == TMMachine.LD || op == TMMachine.LDC) && tm.getArg1(loc) == PC;
+    }
+
+    private boolean sameOperands(TMWriter tm, int a, int b) {
+        return tm.getArg1(a) == tm.getArg1(b) && tm.getArg2(a) == tm.getArg2(b) && tm.getArg3(a) == tm.getArg3(b);
+    }
+}
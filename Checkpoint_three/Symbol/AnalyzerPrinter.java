@@ -2,18 +2,27 @@ package Symbol;
 
 import java.io.FileWriter;
 import java.io.BufferedWriter;
+import java.io.Writer;
 import java.io.IOException;
 import java.util.List;
+import trace.Trace;
 
 public class AnalyzerPrinter {
 
     private BufferedWriter writer;
     private boolean toFile; //write to file or stdout
+    private int category; //trace category that enables stdout output
     private static final int  SPACES = 4;
 
     public AnalyzerPrinter(String filename, boolean toFile){
+        this(filename, toFile, Trace.SEMANTIC);
+    }
+
+    //when not writing to a file, output only shows up if 'category' is traced at INFO
+    public AnalyzerPrinter(String filename, boolean toFile, int category){
 
         this.toFile = toFile;
+        this.category = category;
 
         if (toFile){
             try {
@@ -25,6 +34,18 @@ public class AnalyzerPrinter {
 
     }
 
+    //write to 'writer' instead of a file; with a null writer this behaves like toFile == false
+    public AnalyzerPrinter(Writer writer, int category){
+        this.toFile = writer != null;
+        this.category = category;
+        if (writer != null) this.writer = new BufferedWriter(writer);
+    }
+
+    //true if messages go anywhere, so callers can skip building them
+    public boolean isEnabled(){
+        return toFile || Trace.on(category, Trace.INFO);
+    }
+
     public void indent(int level){
 
         if (toFile){
@@ -35,7 +56,7 @@ public class AnalyzerPrinter {
                 e.printStackTrace();
             }
         }
-        else{
+        else if (Trace.on(category, Trace.INFO)){
             for( int i = 0; i < level * SPACES; i++ ) System.out.print( " " );
         }
     }
@@ -55,7 +76,7 @@ public class AnalyzerPrinter {
                 e.printStackTrace();
             }
         }
-        else{
+        else if (Trace.on(category, Trace.INFO)){
             System.out.println(msg);
         }
     }
@@ -72,7 +93,7 @@ public class AnalyzerPrinter {
                 e.printStackTrace();
             }
         }
-        else{
+        else if (Trace.on(category, Trace.INFO)){
             System.out.println(msg);
         }
 
@@ -89,7 +110,7 @@ public class AnalyzerPrinter {
                 e.printStackTrace();
             }
         }
-        else{
+        else if (Trace.on(category, Trace.INFO)){
             System.out.print(msg);
         }
 
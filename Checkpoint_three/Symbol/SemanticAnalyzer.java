@@ -1,6 +1,9 @@
 package Symbol;
 
 import absyn.*;
+import diag.Code;
+import diag.Diagnostics;
+import trace.Trace;
 
 import java.util.List;
 import java.util.ArrayList;
@@ -8,21 +11,39 @@ import java.util.ArrayList;
 public class SemanticAnalyzer implements AbsynVisitor {
     private SymbolTable symbolTable;
     private String currentFunctionReturnType = null;
-    private boolean errorFlag = false;
-    private String errorOutput = "";
+    private final Diagnostics diagnostics;
 	private AnalyzerPrinter printer;
     private boolean hasReturn = false;
     private boolean mainDeclared = false;
     private boolean firstCompoundInFunction = false;
+    private int globalOffset = 0;
+    private int localOffset = -2;
 
     public SemanticAnalyzer(AnalyzerPrinter printer) {
+        this(printer, new Diagnostics());
+    }
+
+    public SemanticAnalyzer(AnalyzerPrinter printer, Diagnostics diagnostics) {
         symbolTable = new SymbolTable(printer);
 		this.printer = printer;
+        this.diagnostics = diagnostics;
     }
 	
     public SymbolTable getSymbolTable() {
         return symbolTable;
     }
+
+    public boolean hasErrors() {
+        return diagnostics.hasErrors();
+    }
+
+    public Diagnostics getDiagnostics() {
+        return diagnostics;
+    }
+
+    private void error(Code code, Absyn node, Object... args) {
+        diagnostics.error(code, node.row + 1, node.col + 1, args);
+    }
     
 	/*public SemanticAnalyzer(AnalyzerPrinter printer) {
         this.printer = printer;
@@ -31,27 +52,30 @@ public class SemanticAnalyzer implements AbsynVisitor {
 
     public void analyze(DecList root) {
         symbolTable.enterScope("Global");
-        List<Integer> outputParamTypes = new ArrayList<>();
-        List<Integer> outputParamDims = new ArrayList<>();
-        outputParamTypes.add(1);  // int
-        outputParamDims.add(0);   // scalar
-        symbolTable.insert("output", 2, 1, 0, 0, outputParamTypes, outputParamDims);
+        Signature outputSignature = symbolTable.signature(new int[] { 1 }, new int[] { 0 });  // one int scalar
+        FunctionDec output = new FunctionDec(0, 0, new NameTy(0, 0, NameTy.VOID), "output", null, null);
+        output.nameId = NameTable.OUTPUT;
+        symbolTable.insert(NameTable.OUTPUT, "output", 2, 1, 0, 0, outputSignature);
+        symbolTable.lookup(NameTable.OUTPUT).dec = output;
         
-        symbolTable.insert("input", 1, 0, 0, 0);
-        visit(root, 0, false);
-        symbolTable.exitScope("Exiting Global");
-        symbolTable.printTable();
-        System.out.println();
-        System.out.println("[END] Semantic Analysis Complete.");
-        if (!mainDeclared) {
-            errorFlag = true;
-            errorOutput = errorOutput + "\n[ERROR] Missing main";
-        }
-        if (!errorFlag) {
-            System.out.println("No semantic errors");
+        FunctionDec input = new FunctionDec(0, 0, new NameTy(0, 0, NameTy.INT), "input", null, null);
+        input.nameId = NameTable.INPUT;
+        symbolTable.insert(NameTable.INPUT, "input", 1, 0, 0, 0);
+        symbolTable.lookup(NameTable.INPUT).dec = input;
+        try {
+            visit(root, 0, false);
+            symbolTable.exitScope("Exiting Global");
+            symbolTable.printTable();
+            if (Trace.on(Trace.SEMANTIC, Trace.INFO)) Trace.log(Trace.SEMANTIC, "\n[END] Semantic Analysis Complete.");
+            if (!mainDeclared) {
+                diagnostics.error(Code.MISSING_MAIN, 0, 0);
+            }
+        } catch (Diagnostics.LimitReached e) {
+            // the error limit was hit; the rest of the program is not checked
+            return;
         }
-        else {
-            System.err.println(errorOutput);
+        if (!diagnostics.hasErrors()) {
+            if (Trace.on(Trace.SEMANTIC, Trace.INFO)) Trace.log(Trace.SEMANTIC, "No semantic errors");
         }
     }
 
@@ -69,10 +93,8 @@ public class SemanticAnalyzer implements AbsynVisitor {
 
     @Override
     public void visit(FunctionDec node, int level, boolean flag) {
-        //System.out.println("[VISIT] FunctionDec '" + node.func_name + "' at level " + level);
+        if (Trace.on(Trace.SEMANTIC, Trace.DEBUG)) Trace.log(Trace.SEMANTIC, "[VISIT] FunctionDec '" + node.func_name + "' at level " + level);
 		//printer.printLevel("[VISIT] FunctionDec '" + node.func_name + "' at level " + level, level);
-        List<Integer> paramTypes = new ArrayList<>();
-        List<Integer> paramDims = new ArrayList<>();
         firstCompoundInFunction = true;
         hasReturn = false;
         switch (node.return_type.type) {
@@ -90,54 +112,61 @@ public class SemanticAnalyzer implements AbsynVisitor {
         }
 
         if (mainDeclared) {
-            errorFlag = true;
-            errorOutput = errorOutput + "\n[ERROR] Function '" + node.func_name + "' is declared after main when main must be the last function " + " at line " + (node.row + 1) + " and column " + (node.col + 1);
+            error(Code.FUNCTION_AFTER_MAIN, node, node.func_name);
         }
 
         if (node.func_name.equals("main")) {
             mainDeclared = true;
         }
 
+        int paramCount = 0;
+        for (VarDecList p = node.parameters; p != null && p.head != null; p = p.tail) paramCount++;
+        int[] paramTypes = new int[paramCount];
+        int[] paramDims = new int[paramCount];
+
         VarDecList params = node.parameters;
-        while (params != null && params.head != null) {
+        for (int i = 0; i < paramCount; i++) {
             if (params.head instanceof SimpleDec) {
-                paramTypes.add(((SimpleDec) params.head).type.type); // Store type
-                paramDims.add(0); // Simple variables have dimension 0
+                paramTypes[i] = ((SimpleDec) params.head).type.type; // Store type
+                paramDims[i] = 0; // Simple variables have dimension 0
             } else if (params.head instanceof ArrayDec) {
-                paramTypes.add(((ArrayDec) params.head).type.type); // Store type
+                paramTypes[i] = ((ArrayDec) params.head).type.type; // Store type
                 if (((ArrayDec) params.head).size == 0) {
-                    paramDims.add(1);
+                    paramDims[i] = 1;
                 }
                 else {
-                    paramDims.add(((ArrayDec) params.head).size); // Store array size
+                    paramDims[i] = ((ArrayDec) params.head).size; // Store array size
                 }
             } else {
-                errorFlag = true;
-                errorOutput = errorOutput + "\n[ERROR] Unknown parameter type at line " + (params.head.row + 1) + " and column " + (params.head.col + 1);
+                paramTypes[i] = -1;
+                error(Code.UNKNOWN_PARAMETER_TYPE, params.head);
             }
         
             params = params.tail;
         }
+        Signature signature = symbolTable.signature(paramTypes, paramDims);
 
-        SymbolEntry existingEntry = symbolTable.lookup(node.func_name);
+        SymbolEntry existingEntry = symbolTable.lookup(node.nameId);
 
         if (node.body instanceof NilExp) {
             if (existingEntry != null) {
-                errorFlag = true;
-                errorOutput = errorOutput + "\n[ERROR] Function prototype for '" + node.func_name + "' is re-declared" + " at line " + (node.row + 1) + " and column " + (node.col + 1);
+                error(Code.PROTOTYPE_REDECLARED, node, node.func_name);
             } else {
-                if (!symbolTable.insert(node.func_name, node.return_type.type, paramTypes.size(), 0, 0, paramTypes, paramDims)) {
-                    errorFlag = true;
-                    errorOutput = errorOutput + "\n[ERROR] Duplicate function declaration for '" + node.func_name + "' at line " + (node.row + 1) + " and column " + (node.col + 1);    
+                if (!symbolTable.insert(node.nameId, node.func_name, node.return_type.type, signature.size(), 0, 0, signature)) {
+                    error(Code.DUPLICATE_FUNCTION, node, node.func_name);
+                } else {
+                    symbolTable.lookup(node.nameId).dec = node;
                 }
                 //System.out.println("[PROTOTYPE] Declared function prototype '" + node.func_name + "'");
 				//printer.printLevel("[PROTOTYPE] Declared function prototype '" + node.func_name + "'", level);
             }
         } else {
             if (existingEntry != null) {
-                if (existingEntry.dim != paramTypes.size()) {
-                    errorFlag = true;
-                    errorOutput = errorOutput + "\n[ERROR] Function declaration for '" + node.func_name + "' does not match prototype" + " at line " + (node.row + 1) + " and column " + (node.col + 1);
+                if (existingEntry.dec instanceof FunctionDec prototype && prototype.body instanceof NilExp) {
+                    node.prototype = prototype;
+                }
+                if (existingEntry.dim != signature.size()) {
+                    error(Code.PROTOTYPE_MISMATCH, node, node.func_name);
                 } else {
                     //System.out.println("[MATCH] Function '" + node.func_name + "' matches prototype.");
 					//printer.printLevel("[MATCH] Function '" + node.func_name + "' matches prototype.", level);
@@ -145,12 +174,14 @@ public class SemanticAnalyzer implements AbsynVisitor {
             } else {
                 //system.out.println("[DEFINE] Declaring function '" + node.func_name + "'");
 				//printer.printLevel("[DEFINE] Declaring function '" + node.func_name + "'", level);
-                if (!symbolTable.insert(node.func_name, node.return_type.type, paramTypes.size(), 0, 0, paramTypes, paramDims)) {
-                    errorFlag = true;
-                    errorOutput = errorOutput + "\n[ERROR] Duplicate function declaration for '" + node.func_name + "' at line " + (node.row + 1) + " and column " + (node.col + 1);    
+                if (!symbolTable.insert(node.nameId, node.func_name, node.return_type.type, signature.size(), 0, 0, signature)) {
+                    error(Code.DUPLICATE_FUNCTION, node, node.func_name);
+                } else {
+                    symbolTable.lookup(node.nameId).dec = node;
                 }
             }
             symbolTable.enterScope(node.func_name);
+            localOffset = -2;
             //system.out.println("[ENTER] Scope for function '" + node.func_name + "'");
 			//printer.printLevel("[ENTER] Scope for function '" + node.func_name + "'", level);
             
@@ -162,8 +193,7 @@ public class SemanticAnalyzer implements AbsynVisitor {
 
             node.body.accept(this, level + 1, flag);
             if (!currentFunctionReturnType.equals("void") && !hasReturn && !node.func_name.equals("main")) {
-                errorFlag = true;
-                errorOutput = errorOutput + "\n[ERROR] Function '" + node.func_name + "' must have a return statement at line " + (node.row + 1) + " and column " + (node.col + 1);
+                error(Code.MISSING_RETURN, node, node.func_name);
             }
             symbolTable.exitScope(node.func_name);
             //system.out.println("[EXIT] Scope for function '" + node.func_name + "'");
@@ -177,11 +207,13 @@ public class SemanticAnalyzer implements AbsynVisitor {
     public void visit(SimpleDec node, int level, boolean flag) {
         //system.out.println("[VISIT] SimpleDec '" + node.name + "' at level " + level);
 		//printer.printLevel("[VISIT] SimpleDec '" + node.name + "' at level " + level, level);
-        boolean success = symbolTable.insert(node.name, node.type.type, 0, 0, 0);
+        boolean success = symbolTable.insert(node.nameId, node.name, node.type.type, 0, 0, 0);
         if (!success) {
-            errorFlag = true;
-            errorOutput = errorOutput + "\n[ERROR] Variable '" + node.name + "' is already declared in this scope " + " at line " + (node.row + 1) + " and column " + (node.col + 1);
+            error(Code.DUPLICATE_VARIABLE, node, node.name);
+        } else {
+            symbolTable.lookup(node.nameId).dec = node;
         }
+        allocate(node, 1);
     }
 
     @Override
@@ -189,18 +221,38 @@ public class SemanticAnalyzer implements AbsynVisitor {
         //system.out.println("[VISIT] ArrayDec '" + node.name + "' at level " + level);
 		//printer.printLevel("[VISIT] ArrayDec '" + node.name + "' at level " + level, level);
         if (node.size == 0) {
-            boolean success = symbolTable.insert(node.name, node.type.type, 1, 0, 0);
+            boolean success = symbolTable.insert(node.nameId, node.name, node.type.type, 1, 0, 0);
             if (!success) {
-                errorFlag = true;
-                errorOutput = errorOutput + "\n[ERROR] Array '" + node.name + "' is already declared in this scope" + " at line " + (node.row + 1) + " and column " + (node.col + 1);
+                error(Code.DUPLICATE_ARRAY, node, node.name);
+            } else {
+                symbolTable.lookup(node.nameId).dec = node;
             }
+            allocate(node, 1);
         }
         else {
-            boolean success = symbolTable.insert(node.name, node.type.type, node.size, 0, 0);
+            boolean success = symbolTable.insert(node.nameId, node.name, node.type.type, node.size, 0, 0);
             if (!success) {
-                errorFlag = true;
-                errorOutput = errorOutput + "\n[ERROR] Array '" + node.name + "' is already declared in this scope" + " at line " + (node.row + 1) + " and column " + (node.col + 1);
+                error(Code.DUPLICATE_ARRAY, node, node.name);
+            } else {
+                symbolTable.lookup(node.nameId).dec = node;
             }
+            allocate(node, node.size + 1);
+        }
+    }
+
+    /*
+      Give a declaration its frame slot: globals count down from 0(GP), and
+      parameters and locals count down from -2(FP) below the saved frame pointer
+      and return address. An array takes size+1 slots, an array parameter one.
+    */
+    private void allocate(VarDec node, int slots) {
+        node.setNestLevel(symbolTable.getCurrentScope());
+        if (node.nestLevel > 0) {
+            node.setOffset(localOffset);
+            localOffset -= slots;
+        } else {
+            node.setOffset(globalOffset);
+            globalOffset -= slots;
         }
     }
 
@@ -236,28 +288,29 @@ public class SemanticAnalyzer implements AbsynVisitor {
         String lhsType = null;
         int lhsDim = 0;
         String varName = null;
+        int varId = -1;
     
         if (node.lhs instanceof VarExp) {
             VarExp varExp = (VarExp) node.lhs;
     
             if (varExp.variable instanceof SimpleVar) {
                 varName = ((SimpleVar) varExp.variable).name;
+                varId = ((SimpleVar) varExp.variable).nameId;
             } else if (varExp.variable instanceof IndexVar) {
                 varName = ((IndexVar) varExp.variable).name;
+                varId = ((IndexVar) varExp.variable).nameId;
                 visit((IndexVar) varExp.variable, level, flag);
                 String indexType = getExpressionType(((IndexVar) varExp.variable).index);
                 if (!indexType.equals("int")) {
-                    errorOutput = errorOutput + "\n[ERROR] Array index must be of type int but is instead type " + indexType + " at line " + (node.row + 1) + " and column " + (node.col + 1);
-                    errorFlag = true;
+                    error(Code.INDEX_NOT_INT, node, indexType);
                     return;
                 }
             }
     
             if (varName != null) {
-                SymbolEntry lhsEntry = symbolTable.lookup(varName);
+                SymbolEntry lhsEntry = symbolTable.lookup(varId);
                 if (lhsEntry == null) {
-                    errorOutput = errorOutput + "\n[ERROR] Variable '" + varName + "' is undeclared at line " + (node.row + 1) + " and column " + (node.col + 1);
-                    errorFlag = true;
+                    error(Code.UNDECLARED_VARIABLE, node, varName);
                     return;
                 } else {
                     lhsType = getTypeFromEntry(lhsEntry);
@@ -265,22 +318,19 @@ public class SemanticAnalyzer implements AbsynVisitor {
                 }
             }
         } else {
-            errorOutput = errorOutput + "\n[ERROR] LHS of assignment is not a variable at line " + (node.row + 1) + " and column " + (node.col + 1);
-            errorFlag = true;
+            error(Code.ASSIGN_TO_NON_VARIABLE, node);
             return;
         }
     
         String rhsType = getExpressionType(node.rhs);
     
         if (lhsType != null && rhsType != null && !lhsType.equals(rhsType)) {
-            errorOutput = errorOutput + "\n[ERROR] Type mismatch in assignment: Cannot assign '" + rhsType + "' to '" + lhsType + "' at line " + (node.row + 1) + " and column " + (node.col + 1);
-            errorFlag = true;
+            error(Code.ASSIGN_TYPE_MISMATCH, node, rhsType, lhsType);
         }
     
         // Check for invalid assignment of a scalar value to an array
         if (lhsDim > 0 && varName != null && node.lhs instanceof VarExp && ((VarExp) node.lhs).variable instanceof SimpleVar) {
-            errorOutput = errorOutput + "\n[ERROR] Cannot assign a scalar value to an array '" + varName + "' at line " + (node.row + 1) + " and column " + (node.col + 1);
-            errorFlag = true;
+            error(Code.ASSIGN_SCALAR_TO_ARRAY, node, varName);
         }
     
         node.rhs.accept(this, level, flag);
@@ -307,7 +357,7 @@ public class SemanticAnalyzer implements AbsynVisitor {
         if (node.left instanceof VarExp) {
             VarExp varExp = (VarExp) node.left;
             if (varExp.variable instanceof SimpleVar) {
-                SymbolEntry varEntry = symbolTable.lookup(((SimpleVar) varExp.variable).name);
+                SymbolEntry varEntry = symbolTable.lookup(((SimpleVar) varExp.variable).nameId);
                 if (varEntry != null) leftDim = varEntry.dim;
             } else if (varExp.variable instanceof IndexVar) {
                 leftDim = 0;  // Indexing an array results in a scalar
@@ -317,7 +367,7 @@ public class SemanticAnalyzer implements AbsynVisitor {
         if (node.right instanceof VarExp) {
             VarExp varExp = (VarExp) node.right;
             if (varExp.variable instanceof SimpleVar) {
-                SymbolEntry varEntry = symbolTable.lookup(((SimpleVar) varExp.variable).name);
+                SymbolEntry varEntry = symbolTable.lookup(((SimpleVar) varExp.variable).nameId);
                 if (varEntry != null) rightDim = varEntry.dim;
             } else if (varExp.variable instanceof IndexVar) {
                 rightDim = 0;
@@ -326,16 +376,14 @@ public class SemanticAnalyzer implements AbsynVisitor {
     
         // 🔹 Prevent operations involving arrays
         if (leftDim > 0 || rightDim > 0) {
-            errorOutput = errorOutput + "\n[ERROR] Cannot perform arithmetic operation on arrays at line " + (node.row + 1) + " and column " + (node.col + 1);
-            errorFlag = true;
+            error(Code.ARRAY_ARITHMETIC, node);
             return;
         }
         if (isUnaryMinus && node.left instanceof NilExp) {
             rightType = getExpressionType(node.right);
     
             if (!rightType.equals("int")) {
-                errorOutput = errorOutput + "\n[ERROR] Unary '-' can only be applied to integers at line " + (node.row + 1) + " and column " + (node.col + 1);
-                errorFlag = true;
+                error(Code.UNARY_MINUS_TYPE, node);
             }
             return;
         }
@@ -343,14 +391,12 @@ public class SemanticAnalyzer implements AbsynVisitor {
             rightType = getExpressionType(node.right);
     
             if (!rightType.equals("bool")) {
-                errorOutput = errorOutput + "\n[ERROR] Unary '~' can only be applied to bools at line " + (node.row + 1) + " and column " + (node.col + 1);
-                errorFlag = true;
+                error(Code.UNARY_NOT_TYPE, node);
             }
             return;
         }
         else if (!leftType.equals(rightType)) {
-            errorOutput = errorOutput + "\n[ERROR] Type mismatch in operation: Cannot apply operator to '" + leftType + "' and '" + rightType + "' at line " + (node.row + 1) + " and column " + (node.col + 1);
-            errorFlag = true;
+            error(Code.OPERAND_TYPE_MISMATCH, node, leftType, rightType);
         }
     }
     
@@ -358,11 +404,10 @@ public class SemanticAnalyzer implements AbsynVisitor {
 
     @Override
     public void visit(CallExp node, int level, boolean flag) {
-        SymbolEntry entry = symbolTable.lookup(node.func);
+        SymbolEntry entry = symbolTable.lookup(node.nameId);
     
         if (entry == null) {
-            errorOutput = errorOutput + "\n[ERROR] Function '" + node.func + "' is undefined at line " + (node.row + 1) + " and column " + (node.col + 1);
-            errorFlag = true;
+            error(Code.UNDEFINED_FUNCTION, node, node.func);
             return;
         }
     
@@ -370,46 +415,24 @@ public class SemanticAnalyzer implements AbsynVisitor {
         int actualArgCount = 0;
         ExpList args = node.args;
     
-        List<Integer> expectedTypes = entry.paramTypes;
-        List<Integer> expectedDims = entry.paramDims;
-        List<Integer> actualTypes = new ArrayList<>();
-        List<Integer> actualDims = new ArrayList<>();
-    
         while (args != null && args.head != null) {
-            int argType = -1;
-            int argDim = 0;
-    
-            if (args.head instanceof BoolExp) {
-                argType = 0; // Bool type
-            } else if (args.head instanceof IntExp) {
-                argType = 1; // Int type
-            } else if (args.head instanceof VarExp) {
+            if (args.head instanceof VarExp) {
                 VarExp varExp = (VarExp) args.head;
                 if (varExp.variable instanceof SimpleVar) {
                     String varName = ((SimpleVar) varExp.variable).name;
-                    SymbolEntry varEntry = symbolTable.lookup(varName);
-                    if (varEntry != null) {
-                        argType = varEntry.type;
-                        argDim = varEntry.dim; // Store actual dimension
-                    } else {
-                        errorOutput = errorOutput + "\n[ERROR] Variable '" + varName + "' is undeclared at line " + (node.row + 1) + " and column " + (node.col + 1);
-                        errorFlag = true;
+                    SymbolEntry varEntry = symbolTable.lookup(((SimpleVar) varExp.variable).nameId);
+                    if (varEntry == null) {
+                        error(Code.UNDECLARED_VARIABLE, node, varName);
                     }
                 } else if (varExp.variable instanceof IndexVar) {
                     String varName = ((IndexVar) varExp.variable).name;
-                    SymbolEntry varEntry = symbolTable.lookup(varName);
-                    if (varEntry != null) {
-                        argType = varEntry.type;
-                        argDim = 0;  // Indexing an array results in a scalar value
-                    } else {
-                        errorOutput = errorOutput + "\n[ERROR] Indexed variable '" + varName + "' is undeclared at line " + (node.row + 1) + " and column " + (node.col + 1);
-                        errorFlag = true;
+                    SymbolEntry varEntry = symbolTable.lookup(((IndexVar) varExp.variable).nameId);
+                    if (varEntry == null) {
+                        error(Code.UNDECLARED_ARRAY, node, varName);
                     }
                 }
             }
     
-            actualTypes.add(argType);
-            actualDims.add(argDim);
             args.head.accept(this, level, flag);
             args = args.tail;
             actualArgCount++;
@@ -417,32 +440,39 @@ public class SemanticAnalyzer implements AbsynVisitor {
     
         // 🔹 Check for argument count mismatch
         if (actualArgCount != expectedArgCount) {
-            errorOutput = errorOutput + "\n[ERROR] Function '" + node.func + "' expects " + expectedArgCount + " arguments but got " + actualArgCount + " at line " + (node.row + 1) + " and column " + (node.col + 1);
-            errorFlag = true;
+            error(Code.ARGUMENT_COUNT, node, node.func, expectedArgCount, actualArgCount);
             return;
         }
     
-        // 🔹 Validate argument types
-        for (int i = 0; i < expectedArgCount; i++) {
-            boolean expectedIsArray = expectedDims.get(i) > 0; // True if expected parameter is an array
-            boolean actualIsArray = actualDims.get(i) > 0;     // True if argument is an array
+        // 🔹 Validate argument types against the signature, reading the ints in place
+        Signature signature = entry.signature;
+        if (signature == null) return;
+        args = node.args;
+        for (int i = 0; i < expectedArgCount; i++, args = args.tail) {
+            int argType = getTypeFromString(getExpressionType(args.head));
+            boolean expectedIsArray = signature.dim(i) > 0;     // True if expected parameter is an array
+            boolean actualIsArray = argumentDim(args.head) > 0; // True if argument is an array
     
             // Ensure expected arrays receive arrays and scalars receive scalars
             if (expectedIsArray != actualIsArray) {
-                errorOutput = errorOutput + "\n[ERROR] Argument " + (i + 1) + " of function '" + node.func + "' expects " + 
-                              (expectedIsArray ? "an array" : "a scalar") + " but got " + 
-                              (actualIsArray ? "an array" : "a scalar") + 
-                              " at line " + (node.row + 1) + " and column " + (node.col + 1);
-                errorFlag = true;
+                error(Code.ARGUMENT_SHAPE, node, i + 1, node.func, expectedIsArray ? "an array" : "a scalar", actualIsArray ? "an array" : "a scalar");
             } 
     
             // Ensure base types (`int`, `bool`) match, but ignore specific array sizes
-            else if (!expectedTypes.get(i).equals(actualTypes.get(i))) {
-                errorOutput = errorOutput + "\n[ERROR] Argument " + (i + 1) + " of function '" + node.func + "' expects type '" + expectedTypes.get(i) + "' but got '" + actualTypes.get(i) + "' at line " + (node.row + 1) + " and column " + (node.col + 1);
-                errorFlag = true;
+            else if (signature.type(i) != argType) {
+                error(Code.ARGUMENT_TYPE, node, i + 1, node.func, signature.type(i), argType);
             }
         }
     }
+
+    // Dimension of a call argument: the declared dim of a plain variable, 0 for anything else.
+    private int argumentDim(Exp arg) {
+        if (arg instanceof VarExp varExp && varExp.variable instanceof SimpleVar simpleVar) {
+            SymbolEntry varEntry = symbolTable.lookup(simpleVar.nameId);
+            if (varEntry != null) return varEntry.dim;
+        }
+        return 0;
+    }
     
     
     
@@ -456,8 +486,7 @@ public class SemanticAnalyzer implements AbsynVisitor {
         String conditionType = getExpressionType(node.test);
     
         if (!conditionType.equals("bool") && !conditionType.equals("int")) {
-            errorOutput = errorOutput + "\n[ERROR] Condition in if-statement must be  'bool' or 'int', but got '" + conditionType + " at line " + (node.row + 1) + " and column " + (node.col + 1);
-            errorFlag = true;
+            error(Code.IF_CONDITION_TYPE, node, conditionType);
         }
     
         node.thenpart.accept(this, level, flag);
@@ -475,8 +504,7 @@ public class SemanticAnalyzer implements AbsynVisitor {
         String conditionType = getExpressionType(node.test);
     
         if (!conditionType.equals("bool") && !conditionType.equals("int")) {
-            errorOutput = errorOutput + "\n[ERROR] Condition in if-statement must be  'bool' or 'int', but got '" + conditionType + " at line " + (node.row + 1) + " and column " + (node.col + 1);
-            errorFlag = true;
+            error(Code.WHILE_CONDITION_TYPE, node, conditionType);
         }
         node.body.accept(this, level, flag);
     }
@@ -488,15 +516,13 @@ public class SemanticAnalyzer implements AbsynVisitor {
 		//printer.printLevel("[VISIT] ReturnExp", level);
     
         if (currentFunctionReturnType == null) {
-            errorOutput = errorOutput + "\n[ERROR] Return statement found outside of a function" + " at line " + (node.row + 1) + " and column " + (node.col + 1);
-            errorFlag = true;
+            error(Code.RETURN_OUTSIDE_FUNCTION, node);
             return;
         }
     
         if (node.exp == null) {
             if (!currentFunctionReturnType.equals("void")) {
-                errorOutput = errorOutput + "\n[ERROR] Missing return value in non-void function" + " at line " + (node.row + 1) + " and column " + (node.col + 1);
-                errorFlag = true;
+                error(Code.MISSING_RETURN_VALUE, node);
             }
             return;
         }
@@ -504,8 +530,7 @@ public class SemanticAnalyzer implements AbsynVisitor {
         node.exp.accept(this, level, flag);
         String returnType = getExpressionType(node.exp);
         if (!returnType.equals(currentFunctionReturnType) && !currentFunctionReturnType.equals("void")) {
-            errorOutput = errorOutput + "\n[ERROR] Function must return '" + currentFunctionReturnType + "', but got '" + returnType + "' at line " + (node.row + 1) + " and column " + (node.col + 1);
-            errorFlag = true;
+            error(Code.RETURN_TYPE, node, currentFunctionReturnType, returnType);
         }
     }
     
@@ -517,32 +542,28 @@ public class SemanticAnalyzer implements AbsynVisitor {
     
         if (node.variable instanceof SimpleVar) {
             String varName = ((SimpleVar) node.variable).name;
-            SymbolEntry entry = symbolTable.lookup(varName);
+            SymbolEntry entry = symbolTable.lookup(((SimpleVar) node.variable).nameId);
     
             if (entry == null) {
-                errorOutput = errorOutput + "\n[ERROR] Variable '" + varName + "' is undeclared" + " at line " + (node.row + 1) + " and column " + (node.col + 1);
-                errorFlag = true;
+                error(Code.UNDECLARED_VARIABLE, node, varName);
             } else {
                 //system.out.println("[LOOKUP] Found variable '" + varName + "' in Scope: " + entry.scope);
 				//printer.printLevel("[LOOKUP] Found variable '" + varName + "' in Scope: " + entry.scope, level);
             }
         } else if (node.variable instanceof IndexVar) {
             String varName = ((IndexVar) node.variable).name;
-            SymbolEntry entry = symbolTable.lookup(varName);
+            SymbolEntry entry = symbolTable.lookup(((IndexVar) node.variable).nameId);
     
             if (entry == null) {
-                errorOutput = errorOutput + "\n[ERROR] Array '" + varName + "' is undeclared" + " at line " + (node.row + 1) + " and column " + (node.col + 1);
-                errorFlag = true;
+                error(Code.UNDECLARED_ARRAY, node, varName);
             } else if (entry.dim <= 0) {
-                errorOutput = errorOutput + "\n[ERROR] '" + varName + "' is not an array "+ " at line " + (node.row + 1) + " and column " + (node.col + 1);
-                errorFlag = true;
+                error(Code.NOT_AN_ARRAY, node, varName);
             } else {
                 //system.out.println("[LOOKUP] Found array '" + varName + "' in Scope: " + entry.scope);
 				//printer.printLevel("[LOOKUP] Found array '" + varName + "' in Scope: " + entry.scope, level);
             }
         } else {
-            errorOutput = errorOutput + "\n[ERROR] Unknown variable type in VarExp" + " at line " + (node.row + 1) + " and column " + (node.col + 1);
-            errorFlag = true;
+            error(Code.UNKNOWN_VARIABLE_TYPE, node);
         }
     }
     
@@ -589,6 +610,7 @@ public class SemanticAnalyzer implements AbsynVisitor {
     
         while (node != null) {
             if (node.head != null) {
+                bind(node.head);
                 //system.out.println("[VISIT] Expression inside ExpList at level " + level);
 				//printer.printLevel("[VISIT] Expression inside ExpList at level " + level, level);
                 node.head.accept(this, level, flag);
@@ -613,30 +635,26 @@ public class SemanticAnalyzer implements AbsynVisitor {
     }
 
     public void visit(SimpleVar node, int level, boolean flag) {
-        SymbolEntry entry = symbolTable.lookup(node.name);
+        SymbolEntry entry = symbolTable.lookup(node.nameId);
         if (entry == null) {
-            errorOutput = errorOutput + "Error: Undeclared variable '" + node.name + " at line " + (node.row + 1) + " and column " + (node.col + 1);
-            errorFlag = true;
+            error(Code.UNDECLARED_VARIABLE, node, node.name);
         }
     }
 
     public void visit(NameTy node, int level, boolean flag) {
         if (node.type < 0 || node.type > 3) {
-            errorOutput = errorOutput + "Error: Invalid type" + " at line " + (node.row + 1) + " and column " + (node.col + 1);
-            errorFlag = true;
+            error(Code.INVALID_TYPE, node);
         }
     }
     @Override
     public void visit(IndexVar node, int level, boolean flag) {
-        SymbolEntry entry = symbolTable.lookup(node.name);
+        SymbolEntry entry = symbolTable.lookup(node.nameId);
     
         if (entry == null) {
-            errorOutput = errorOutput + "\n[ERROR] Undeclared array variable '" + node.name + "' at line " + (node.row + 1) + " and column " + (node.col + 1);
-            errorFlag = true;
+            error(Code.UNDECLARED_ARRAY, node, node.name);
             return;
         } else if (entry.dim <= 0) {
-            errorOutput = errorOutput + "\n[ERROR] '" + node.name + "' is not an array at line " + (node.row + 1) + " and column " + (node.col + 1);
-            errorFlag = true;
+            error(Code.NOT_AN_ARRAY, node, node.name);
             return;
         }
     
@@ -646,7 +664,7 @@ public class SemanticAnalyzer implements AbsynVisitor {
         if (node.index instanceof VarExp) {
             VarExp varExp = (VarExp) node.index;
             if (varExp.variable instanceof SimpleVar) {
-                SymbolEntry indexEntry = symbolTable.lookup(((SimpleVar) varExp.variable).name);
+                SymbolEntry indexEntry = symbolTable.lookup(((SimpleVar) varExp.variable).nameId);
                 if (indexEntry != null) {
                     indexDim = indexEntry.dim;
                 }
@@ -656,19 +674,59 @@ public class SemanticAnalyzer implements AbsynVisitor {
         }
     
         if (!indexType.equals("int")) {
-            errorOutput = errorOutput + "\n[ERROR] Array index for '" + node.name + "' must be an integer at line " + (node.row + 1) + " and column " + (node.col + 1);
-            errorFlag = true;
+            error(Code.INDEX_NOT_INTEGER, node, node.name);
         }
     
         if (indexDim > 0) {
-            errorOutput = errorOutput + "\n[ERROR] Array index for '" + node.name + "' cannot be an array at line " + (node.row + 1) + " and column " + (node.col + 1);
-            errorFlag = true;
+            error(Code.INDEX_IS_ARRAY, node, node.name);
         }
     
         node.index.accept(this, level, flag);
     }
     
 
+    /*
+      Link the variable uses and calls in one statement to the declarations they
+      resolve to in the current scope, so code generation can read offsets and
+      function entries off the tree. Statement lists are linked when their
+      ExpList is visited, since a compound statement may open a new scope.
+    */
+    private void bind(Exp exp) {
+        if (exp instanceof VarExp varExp) {
+            bind(varExp.variable);
+        } else if (exp instanceof CallExp callExp) {
+            SymbolEntry entry = symbolTable.lookup(callExp.nameId);
+            if (entry != null && entry.dec instanceof FunctionDec functionDec) callExp.setFunDec(functionDec);
+            for (ExpList args = callExp.args; args != null; args = args.tail) bind(args.head);
+        } else if (exp instanceof OpExp opExp) {
+            bind(opExp.left);
+            bind(opExp.right);
+        } else if (exp instanceof AssignExp assignExp) {
+            bind(assignExp.lhs);
+            bind(assignExp.rhs);
+        } else if (exp instanceof IfExp ifExp) {
+            bind(ifExp.test);
+        } else if (exp instanceof WhileExp whileExp) {
+            bind(whileExp.test);
+            bind(whileExp.body);
+        } else if (exp instanceof RepeatExp repeatExp) {
+            bind(repeatExp.test);
+        } else if (exp instanceof ReturnExp returnExp) {
+            bind(returnExp.exp);
+        } else if (exp instanceof WriteExp writeExp) {
+            bind(writeExp.output);
+        } else if (exp instanceof ReadExp readExp) {
+            bind(readExp.input);
+        }
+    }
+
+    private void bind(Var var) {
+        int id = var instanceof IndexVar indexVar ? indexVar.nameId : ((SimpleVar) var).nameId;
+        SymbolEntry entry = symbolTable.lookup(id);
+        if (entry != null && entry.dec instanceof VarDec varDec) var.setVarDec(varDec);
+        if (var instanceof IndexVar indexVar) bind(indexVar.index);
+    }
+
     private boolean isTypeCompatible(Exp left, Exp right) {
         String leftType = getExpressionType(left);
         String rightType = getExpressionType(right);
@@ -686,14 +744,14 @@ public class SemanticAnalyzer implements AbsynVisitor {
         return "unknown";
     }
 
-    private List<String> getFunctionParameterTypes(String functionName) {
+    private List<String> getFunctionParameterTypes(int functionId) {
         List<String> paramTypes = new ArrayList<>();
-        SymbolEntry entry = symbolTable.lookup(functionName);
+        SymbolEntry entry = symbolTable.lookup(functionId);
     
-        if (entry != null && entry.paramTypes != null) {
-            for (int i = 0; i < entry.paramTypes.size(); i++) {
-                String typeStr = getTypeAsString(entry.paramTypes.get(i));
-                if (entry.paramDims.get(i) > 0) { // If it has a dimension, it's an array
+        if (entry != null && entry.signature != null) {
+            for (int i = 0; i < entry.signature.size(); i++) {
+                String typeStr = getTypeAsString(entry.signature.type(i));
+                if (entry.signature.dim(i) > 0) { // If it has a dimension, it's an array
                     typeStr += "[]";
                 }
                 paramTypes.add(typeStr);
@@ -737,28 +795,39 @@ public class SemanticAnalyzer implements AbsynVisitor {
         }
     }
 
+    /*
+      The type of an expression, worked out once per node (children first) and
+      kept in Exp.expType. The checks in the visit methods ask for the same
+      subexpressions again, and every OpExp asks for its operands, so without
+      the memo a nested expression was re-typed, with its lookups and errors,
+      once per ancestor.
+    */
     private String getExpressionType(Exp expr) {
+        if (expr.expType == null) expr.expType = computeExpressionType(expr);
+        return expr.expType;
+    }
+
+    private String computeExpressionType(Exp expr) {
         if (expr instanceof BoolExp) return "bool";
         if (expr instanceof IntExp) return "int";
         if (expr instanceof VarExp) {
             VarExp varExp = (VarExp) expr;
             if (varExp.variable instanceof SimpleVar) {
                 String varName = ((SimpleVar) varExp.variable).name;
-                SymbolEntry entry = symbolTable.lookup(varName);
+                SymbolEntry entry = symbolTable.lookup(((SimpleVar) varExp.variable).nameId);
                 if (entry != null) {
                     return getTypeFromEntry(entry);
                 }
             }
             else if (varExp.variable instanceof IndexVar) {
                 String varName = ((IndexVar) varExp.variable).name;
-                SymbolEntry entry = symbolTable.lookup(varName);
+                SymbolEntry entry = symbolTable.lookup(((IndexVar) varExp.variable).nameId);
                 
                 if (entry != null) {
                     if (entry.dim > 0) {
                         return getTypeFromEntry(entry);
                     } else {
-                        errorOutput = errorOutput + "\n[ERROR] Variable '" + varName + "' is not an array but was indexed at line " + (expr.row + 1) + " and column " + (expr.col + 1);
-                        errorFlag = true;
+                        error(Code.INDEXED_NON_ARRAY, expr, varName);
                         return "unknown";
                     }
                 }
@@ -766,10 +835,10 @@ public class SemanticAnalyzer implements AbsynVisitor {
         }
         if (expr instanceof CallExp) {
             CallExp callExp = (CallExp) expr;
-            SymbolEntry entry = symbolTable.lookup(callExp.func);
+            SymbolEntry entry = symbolTable.lookup(callExp.nameId);
             
             if (entry == null) {
-                entry = symbolTable.lookupGlobal(callExp.func);
+                entry = symbolTable.lookupGlobal(callExp.nameId);
             }
     
             if (entry != null) {
@@ -786,7 +855,8 @@ public class SemanticAnalyzer implements AbsynVisitor {
             String leftType = getExpressionType(opExp.left);
             String rightType = getExpressionType(opExp.right);
     
-            if (opExp.op == OpExp.EQ || opExp.op == OpExp.LT || opExp.op == OpExp.GT) {
+            if (opExp.op == OpExp.EQ || opExp.op == OpExp.NEQ || opExp.op == OpExp.LT || opExp.op == OpExp.LTE
+                    || opExp.op == OpExp.GT || opExp.op == OpExp.GTE) {
                 return "bool";
             }
             boolean isUnaryMinus = (opExp.op == OpExp.UMINUS);
@@ -794,8 +864,7 @@ public class SemanticAnalyzer implements AbsynVisitor {
                 rightType = getExpressionType(opExp.right);
         
                 if (!rightType.equals("int")) {
-                    errorOutput = errorOutput + "\n[ERROR] Unary '-' can only be applied to integers at line " + (opExp.row + 1) + " and column " + (opExp.col + 1);
-                    errorFlag = true;
+                    error(Code.UNARY_MINUS_TYPE, opExp);
                 }
                 return "int";
             }
@@ -805,8 +874,7 @@ public class SemanticAnalyzer implements AbsynVisitor {
                 rightType = getExpressionType(opExp.right);
         
                 if (!rightType.equals("bool")) {
-                    errorOutput = errorOutput + "\n[ERROR] Unary '~' can only be applied to bools at line " + (opExp.row + 1) + " and column " + (opExp.col + 1);
-                    errorFlag = true;
+                    error(Code.UNARY_NOT_TYPE, opExp);
                 }
                 return "bool";
             }
@@ -0,0 +1,50 @@
+package Symbol;
+
+import java.util.Arrays;
+
+/*
+  Parameter types and dimensions of a function, in declaration order. The
+  arrays are never changed after construction and the hash is computed once,
+  so signatures can be interned: SymbolTable.signature() hands out one shared
+  instance per distinct signature, and checking a call reads the ints in
+  place instead of building boxed lists.
+*/
+public final class Signature {
+
+    public static final Signature EMPTY = new Signature(new int[0], new int[0]);
+
+    private final int[] types;
+    private final int[] dims;
+    private final int hash;
+
+    Signature(int[] types, int[] dims) {
+        this.types = types;
+        this.dims = dims;
+        this.hash = 31 * Arrays.hashCode(types) + Arrays.hashCode(dims);
+    }
+
+    public int size() {
+        return types.length;
+    }
+
+    public int type(int i) {
+        return types[i];
+    }
+
+    public int dim(int i) {
+        return dims[i];
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Signature)) return false;
+        Signature other = (Signature) o;
+        return hash == other.hash && Arrays.equals(types, other.types) && Arrays.equals(dims, other.dims);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
@@ -1,22 +1,21 @@
 package Symbol;
-import java.util.List;
+import absyn.Dec;
 public class SymbolEntry {
     public int scope;     // Scope level (0 = global, 1 = function, etc.)
     public int type;      // Data type (e.g., INT = 0, VOID = 1)
     public int dim;
     public int offset;    // Memory offset for storage
     public int pc;
-    List <Integer> paramTypes;
-    List <Integer> paramDims;
+    Signature signature;  // Parameter types and dims of a function, null for variables
+    public Dec dec;       // Declaration the name resolves to
 
-    public SymbolEntry(int type, int scope, int dim, int offset, int pc, List<Integer> paramTypes, List<Integer> paramDims) {
+    public SymbolEntry(int type, int scope, int dim, int offset, int pc, Signature signature) {
         this.type = type;
         this.scope = scope;
         this.dim = dim;
         this.offset = offset;
         this.pc = pc;
-        this.paramTypes = paramTypes;
-        this.paramDims = paramDims;
+        this.signature = signature;
     }
 
     public SymbolEntry(int type, int scope, int dimensions, int offset, int pc) {
@@ -25,8 +24,7 @@ public class SymbolEntry {
         this.dim = dimensions;
         this.offset = offset;
         this.pc = pc;
-        this.paramTypes = null;
-        this.paramDims = null;
+        this.signature = null;
     }
 
     @Override
@@ -2,123 +2,162 @@ package Symbol;
 
 import java.util.*;
 
+/*
+  Scoped symbol table in the style of Louden's hash table with scope stacks.
+  Names come in as their NameTable ids, which are small and dense, so the
+  "hash table" is an array indexed by id that holds the innermost visible
+  binding of each name, and every binding links to the one it shadows.
+  Each scope also keeps the list of bindings declared in it, and exitScope
+  uses that list to undo them. So lookup and insert take constant time
+  however many scopes came before, and an exited scope is really gone.
+
+  With setPreserve(true) the contents of exited scopes are also kept in a
+  separate history so that printHistory() can still dump them afterwards.
+*/
 public class SymbolTable {
-    private final List<Map<String, SymbolEntry>> scopeStack = new ArrayList<>();
+
+    private static final class Binding {
+        final int id;
+        final String name;
+        final SymbolEntry entry;
+        final Binding shadowed;
+
+        Binding(int id, String name, SymbolEntry entry, Binding shadowed) {
+            this.id = id;
+            this.name = name;
+            this.entry = entry;
+            this.shadowed = shadowed;
+        }
+    }
+
+    private Binding[] table = new Binding[64];
+    private final List<List<Binding>> scopeStack = new ArrayList<>();
+    private final List<List<Binding>> history = new ArrayList<>();
+    private final Map<Signature, Signature> signatures = new HashMap<>();
     private int currentScope;
     private final AnalyzerPrinter printer;
-    private boolean preserve = true;
+    private boolean preserve = false;
 
     public SymbolTable(AnalyzerPrinter printer) {
         this.printer = printer;
         this.currentScope = -1;
     }
 
+    // Keep the contents of exited scopes for printHistory().
     public void setPreserve(boolean preserve) {
         this.preserve = preserve;
     }
 
     public void enterScope(String context) {
-        currentScope++;
-        scopeStack.add(new HashMap<>());
-        printer.indent(currentScope);
-        printer.printMsg("[ENTER] Entering Scope Level: " + currentScope + (context != null ? " for " + context : ""));
+        enterScope(context, true);
     }
 
     public void enterScope(String context, boolean print) {
         currentScope++;
-        scopeStack.add(new HashMap<>());
-        if (print != false) {
+        scopeStack.add(new ArrayList<>());
+        if (print && printer.isEnabled()) {
             printer.indent(currentScope);
             printer.printMsg("[ENTER] Entering Scope Level: " + currentScope + (context != null ? " for " + context : ""));
         }
     }
 
     public void exitScope(String context) {
-        printer.indent(currentScope);
-        printer.printMsg("[EXIT] Exiting Scope Level: " + currentScope);
-        printTable();
-
-        if (!preserve && !scopeStack.isEmpty()) {
-            scopeStack.remove(scopeStack.size() - 1);
-        }
-
-        currentScope--;
+        exitScope(context, true);
     }
 
     public void exitScope(String context, boolean print) {
-        if (print != false) {
+        if (print && printer.isEnabled()) {
             printer.indent(currentScope);
             printer.printMsg("[EXIT] Exiting Scope Level: " + currentScope);
             printTable();
         }
-        if (!preserve && !scopeStack.isEmpty()) {
-            scopeStack.remove(scopeStack.size() - 1);
+        if (!scopeStack.isEmpty()) {
+            List<Binding> scope = scopeStack.remove(scopeStack.size() - 1);
+            for (int i = scope.size() - 1; i >= 0; i--) {
+                Binding binding = scope.get(i);
+                table[binding.id] = binding.shadowed;
+            }
+            if (preserve) history.add(scope);
         }
 
         currentScope--;
     }
 
-    public boolean insert(String name, int type, int dim, int offset, int pc) {
-        Map<String, SymbolEntry> current = scopeStack.get(scopeStack.size() - 1);
-        if (current.containsKey(name)) {
-            return false;
-        }
-        current.put(name, new SymbolEntry(type, currentScope, dim, offset, pc));
-        return true;
+    public boolean insert(int id, String name, int type, int dim, int offset, int pc) {
+        return insert(id, name, new SymbolEntry(type, currentScope, dim, offset, pc));
+    }
+
+    public boolean insert(int id, String name, int type, int dim, int offset, int pc, Signature signature) {
+        return insert(id, name, new SymbolEntry(type, currentScope, dim, offset, pc, signature));
     }
 
-    public boolean insert(String name, int type, int dim, int offset, int pc, List<Integer> paramTypes, List<Integer> paramDims) {
-        Map<String, SymbolEntry> current = scopeStack.get(scopeStack.size() - 1);
-        if (current.containsKey(name)) {
+    // The shared Signature for these parameter types and dims; the arrays are kept, so don't change them afterwards.
+    public Signature signature(int[] types, int[] dims) {
+        if (types.length == 0) return Signature.EMPTY;
+        Signature signature = new Signature(types, dims);
+        Signature shared = signatures.putIfAbsent(signature, signature);
+        return shared != null ? shared : signature;
+    }
+
+    // 'id' is the name's NameTable id; 'name' is only kept for printing.
+    private boolean insert(int id, String name, SymbolEntry entry) {
+        if (id < 0) return true;  // a declaration the parser could not name
+        if (id >= table.length) table = Arrays.copyOf(table, Math.max(id + 1, table.length * 2));
+        Binding top = table[id];
+        if (top != null && top.entry.scope == currentScope) {
             return false;
         }
-        current.put(name, new SymbolEntry(type, currentScope, dim, offset, pc, paramTypes, paramDims));
+        Binding binding = new Binding(id, name, entry, top);
+        table[id] = binding;
+        scopeStack.get(scopeStack.size() - 1).add(binding);
         return true;
     }
 
-    public SymbolEntry lookup(String name) {
-        for (int i = scopeStack.size() - 1; i >= 0; i--) {
-            Map<String, SymbolEntry> scope = scopeStack.get(i);
-            if (scope.containsKey(name)) {
-                return scope.get(name);
-            }
-        }
-        return null;
+    public SymbolEntry lookup(int id) {
+        Binding binding = id >= 0 && id < table.length ? table[id] : null;
+        return binding == null ? null : binding.entry;
     }
 
     public void printTable() {
-        if (currentScope == -1) return;
+        if (currentScope == -1 || !printer.isEnabled()) return;
         printer.indent(currentScope);
         printer.printMsg("[PRINT] Symbol Table Dump (Current Scope: " + currentScope + ")");
 
         boolean empty = true;
-        Set<String> printed = new HashSet<>();
-        
-        for (int i = currentScope; i >= 0; i--) {
-            Map<String, SymbolEntry> scope = scopeStack.get(i);
-            for (Map.Entry<String, SymbolEntry> entry : scope.entrySet()) {
-                if (!printed.contains(entry.getKey())) {
+        for (int i = scopeStack.size() - 1; i >= 0; i--) {
+            for (Binding binding : scopeStack.get(i)) {
+                // only the innermost binding of each name is visible
+                if (table[binding.id] == binding) {
                     printer.indent(currentScope);
-                    printer.printMsg(entry.getKey() + " -> " + entry.getValue());
-                    printed.add(entry.getKey());
+                    printer.printMsg(binding.name + " -> " + binding.entry);
                     empty = false;
                 }
             }
         }
-        
+
         if (empty) {
             printer.indent(currentScope);
             printer.printMsg("[EMPTY] Symbol Table is empty.");
         }
-        
     }
 
-    public SymbolEntry lookupGlobal(String name) {
-        if (scopeStack.size() > 1) {
-            Map<String, SymbolEntry> globalScope = scopeStack.get(1);
-            return globalScope.get(name);
+    // Dump every scope exited since setPreserve(true), in the order they were exited.
+    public void printHistory() {
+        if (!printer.isEnabled()) return;
+        for (List<Binding> scope : history) {
+            for (Binding binding : scope) {
+                printer.indent(binding.entry.scope);
+                printer.printMsg(binding.name + " -> " + binding.entry);
+            }
+        }
+    }
+
+    public SymbolEntry lookupGlobal(int id) {
+        Binding binding = id >= 0 && id < table.length ? table[id] : null;
+        while (binding != null && binding.entry.scope > 0) {
+            binding = binding.shadowed;
         }
-        return null;
+        return binding == null ? null : binding.entry;
     }
 
     public int getCurrentScope(){
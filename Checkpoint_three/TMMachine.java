@@ -0,0 +1,370 @@
+import java.io.*;
+
+/*
+  In-process TM ("Tiny Machine") simulator. This is a Java port of
+  TMSimulator/TMSimulator/tm.c that can be fed directly by TMWriter, so a
+  compiled program can be run in the same JVM without spawning tm.exe and
+  re-parsing its text. Instructions are pre-decoded into int arrays and run
+  by a single switch dispatch loop.
+
+  Standalone use:  java TMMachine [-t] [-p] [-d <dataSize>] file.tm
+*/
+public class TMMachine {
+
+    /* opcodes, in the same order as the OPCODE enum in tm.c */
+    public static final int HALT = 0;
+    public static final int IN   = 1;
+    public static final int OUT  = 2;
+    public static final int ADD  = 3;
+    public static final int SUB  = 4;
+    public static final int MUL  = 5;
+    public static final int DIV  = 6;
+    public static final int LD   = 7;
+    public static final int ST   = 8;
+    public static final int LDA  = 9;
+    public static final int LDC  = 10;
+    public static final int JLT  = 11;
+    public static final int JLE  = 12;
+    public static final int JGT  = 13;
+    public static final int JGE  = 14;
+    public static final int JEQ  = 15;
+    public static final int JNE  = 16;
+
+    public static final String[] OPCODE_NAMES = {
+        "HALT", "IN", "OUT", "ADD", "SUB", "MUL", "DIV",
+        "LD", "ST",
+        "LDA", "LDC", "JLT", "JLE", "JGT", "JGE", "JEQ", "JNE"
+    };
+
+    /* step results, same as STEPRESULT in tm.c */
+    public static final int OKAY        = 0;
+    public static final int HALTED      = 1;
+    public static final int IMEM_ERR    = 2;
+    public static final int DMEM_ERR    = 3;
+    public static final int ZERO_DIVIDE = 4;
+
+    public static final String[] RESULT_NAMES = {
+        "OK", "Halted", "Instruction Memory Fault", "Data Memory Fault", "Division by 0"
+    };
+
+    public static final int NO_REGS = 8;
+    public static final int PC_REG = 7;
+    public static final int DEFAULT_DATA_SIZE = 1024;
+
+    // pre-decoded instruction memory; for RR ops (r, s, t), for RM/RA ops (r, d, s)
+    private int[] iop = new int[64];
+    private int[] iarg1 = new int[64];
+    private int[] iarg2 = new int[64];
+    private int[] iarg3 = new int[64];
+    private int iSize = 0;
+
+    private final int[] dMem;
+    private final int[] reg = new int[NO_REGS];
+    private long steps = 0;
+    private boolean trace = false;
+
+    private BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+    private PrintStream out = System.out;
+
+    public TMMachine() {
+        this(DEFAULT_DATA_SIZE);
+    }
+
+    public TMMachine(int dataSize) {
+        this.dMem = new int[dataSize];
+        reset();
+    }
+
+    // Map an opcode mnemonic to its number, or -1 if it is not a TM opcode.
+    public static int opcode(String name) {
+        switch (name) {
+            case "HALT": return HALT;
+            case "IN":   return IN;
+            case "OUT":  return OUT;
+            case "ADD":  return ADD;
+            case "SUB":  return SUB;
+            case "MUL":  return MUL;
+            case "DIV":  return DIV;
+            case "LD":   return LD;
+            case "ST":   return ST;
+            case "LDA":  return LDA;
+            case "LDC":  return LDC;
+            case "JLT":  return JLT;
+            case "JLE":  return JLE;
+            case "JGT":  return JGT;
+            case "JGE":  return JGE;
+            case "JEQ":  return JEQ;
+            case "JNE":  return JNE;
+            default:     return -1;
+        }
+    }
+
+    // RR instructions take three registers, everything else is reg, d(reg)
+    public static boolean isRegisterOnly(int op) {
+        return op <= DIV;
+    }
+
+    public void setIO(BufferedReader in, PrintStream out) {
+        this.in = in;
+        this.out = out;
+    }
+
+    public void setTrace(boolean trace) {
+        this.trace = trace;
+    }
+
+    public long getSteps() {
+        return steps;
+    }
+
+    public int getRegister(int r) {
+        return reg[r];
+    }
+
+    public int getData(int addr) {
+        return dMem[addr];
+    }
+
+    public int getInstructionCount() {
+        return iSize;
+    }
+
+    // Store one decoded instruction at loc; instruction memory grows as needed.
+    public void setInstruction(int loc, int op, int arg1, int arg2, int arg3) {
+        if (loc >= iop.length) {
+            int cap = iop.length;
+            while (cap <= loc) cap *= 2;
+            iop = java.util.Arrays.copyOf(iop, cap);
+            iarg1 = java.util.Arrays.copyOf(iarg1, cap);
+            iarg2 = java.util.Arrays.copyOf(iarg2, cap);
+            iarg3 = java.util.Arrays.copyOf(iarg3, cap);
+        }
+        iop[loc] = op;
+        iarg1[loc] = arg1;
+        iarg2[loc] = arg2;
+        iarg3[loc] = arg3;
+        if (loc >= iSize) iSize = loc + 1;
+    }
+
+    // Clear registers and data memory, like the 'c' command of tm.c.
+    public void reset() {
+        for (int i = 0; i < NO_REGS; i++) reg[i] = 0;
+        java.util.Arrays.fill(dMem, 0);
+        dMem[0] = dMem.length - 1;
+        steps = 0;
+    }
+
+    // Load a .tm text file in the format written by TMWriter.
+    public void load(Reader source) throws IOException {
+        BufferedReader reader = new BufferedReader(source);
+        String line;
+        int lineNo = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNo++;
+            parseLine(line, lineNo);
+        }
+    }
+
+    private int pos;
+
+    private void parseLine(String line, int lineNo) throws IOException {
+        pos = 0;
+        skipBlanks(line);
+        if (pos >= line.length() || line.charAt(pos) == '*') return;
+
+        int loc = parseNum(line, lineNo, "Bad location");
+        if (loc < 0) throw error("Bad location", lineNo);
+        expect(line, ':', lineNo, "Missing colon");
+
+        skipBlanks(line);
+        int start = pos;
+        while (pos < line.length() && Character.isLetterOrDigit(line.charAt(pos))) pos++;
+        if (start == pos) throw error("Missing opcode", lineNo);
+        int op = opcode(line.substring(start, pos));
+        if (op < 0) throw error("Illegal opcode", lineNo);
+
+        int arg1 = parseReg(line, lineNo, "Bad first register");
+        expect(line, ',', lineNo, "Missing comma");
+        int arg2, arg3;
+        if (isRegisterOnly(op)) {
+            arg2 = parseReg(line, lineNo, "Bad second register");
+            expect(line, ',', lineNo, "Missing comma");
+            arg3 = parseReg(line, lineNo, "Bad third register");
+        } else {
+            arg2 = parseNum(line, lineNo, "Bad displacement");
+            skipBlanks(line);
+            if (pos < line.length() && (line.charAt(pos) == '(' || line.charAt(pos) == ',')) pos++;
+            else throw error("Missing LParen", lineNo);
+            arg3 = parseReg(line, lineNo, "Bad second register");
+        }
+        setInstruction(loc, op, arg1, arg2, arg3);
+    }
+
+    private void skipBlanks(String line) {
+        while (pos < line.length() && Character.isWhitespace(line.charAt(pos))) pos++;
+    }
+
+    private void expect(String line, char c, int lineNo, String msg) throws IOException {
+        skipBlanks(line);
+        if (pos < line.length() && line.charAt(pos) == c) pos++;
+        else throw error(msg, lineNo);
+    }
+
+    private int parseNum(String line, int lineNo, String msg) throws IOException {
+        skipBlanks(line);
+        boolean negative = false;
+        while (pos < line.length() && (line.charAt(pos) == '-' || line.charAt(pos) == '+')) {
+            if (line.charAt(pos) == '-') negative = !negative;
+            pos++;
+        }
+        int start = pos;
+        int value = 0;
+        while (pos < line.length() && Character.isDigit(line.charAt(pos))) {
+            value = value * 10 + (line.charAt(pos) - '0');
+            pos++;
+        }
+        if (start == pos) throw error(msg, lineNo);
+        return negative ? -value : value;
+    }
+
+    private int parseReg(String line, int lineNo, String msg) throws IOException {
+        int r = parseNum(line, lineNo, msg);
+        if (r < 0 || r >= NO_REGS) throw error(msg, lineNo);
+        return r;
+    }
+
+    private IOException error(String msg, int lineNo) {
+        return new IOException("Line " + lineNo + "   " + msg);
+    }
+
+    // Run from the current pc until a HALT or a fault, returning the step result.
+    public int run() throws IOException {
+        final int[] reg = this.reg;
+        final int[] dMem = this.dMem;
+        final int[] iop = this.iop;
+        final int[] iarg1 = this.iarg1;
+        final int[] iarg2 = this.iarg2;
+        final int[] iarg3 = this.iarg3;
+        final int iSize = this.iSize;
+        final int dSize = dMem.length;
+        long count = 0;
+        int result = OKAY;
+
+        while (result == OKAY) {
+            int pc = reg[PC_REG];
+            if (pc < 0 || pc >= iSize) {
+                result = IMEM_ERR;
+                break;
+            }
+            if (trace) out.println(formatInstruction(pc));
+            reg[PC_REG] = pc + 1;
+            count++;
+            int r = iarg1[pc];
+            int m;
+
+            switch (iop[pc]) {
+                /* RR instructions */
+                case HALT:
+                    out.println("HALT: " + r + "," + iarg2[pc] + "," + iarg3[pc]);
+                    result = HALTED;
+                    break;
+                case IN:     reg[r] = readInput(); break;
+                case OUT:    out.println("OUT instruction prints: " + reg[r]); break;
+                case ADD:    reg[r] = reg[iarg2[pc]] + reg[iarg3[pc]]; break;
+                case SUB:    reg[r] = reg[iarg2[pc]] - reg[iarg3[pc]]; break;
+                case MUL:    reg[r] = reg[iarg2[pc]] * reg[iarg3[pc]]; break;
+                case DIV:
+                    if (reg[iarg3[pc]] != 0) reg[r] = reg[iarg2[pc]] / reg[iarg3[pc]];
+                    else result = ZERO_DIVIDE;
+                    break;
+
+                /* RM instructions */
+                case LD:
+                    m = iarg2[pc] + reg[iarg3[pc]];
+                    if (m < 0 || m >= dSize) result = DMEM_ERR;
+                    else reg[r] = dMem[m];
+                    break;
+                case ST:
+                    m = iarg2[pc] + reg[iarg3[pc]];
+                    if (m < 0 || m >= dSize) result = DMEM_ERR;
+                    else dMem[m] = reg[r];
+                    break;
+
+                /* RA instructions */
+                case LDA: reg[r] = iarg2[pc] + reg[iarg3[pc]]; break;
+                case LDC: reg[r] = iarg2[pc]; break;
+                case JLT: if (reg[r] <  0) reg[PC_REG] = iarg2[pc] + reg[iarg3[pc]]; break;
+                case JLE: if (reg[r] <= 0) reg[PC_REG] = iarg2[pc] + reg[iarg3[pc]]; break;
+                case JGT: if (reg[r] >  0) reg[PC_REG] = iarg2[pc] + reg[iarg3[pc]]; break;
+                case JGE: if (reg[r] >= 0) reg[PC_REG] = iarg2[pc] + reg[iarg3[pc]]; break;
+                case JEQ: if (reg[r] == 0) reg[PC_REG] = iarg2[pc] + reg[iarg3[pc]]; break;
+                case JNE: if (reg[r] != 0) reg[PC_REG] = iarg2[pc] + reg[iarg3[pc]]; break;
+                default:
+                    result = IMEM_ERR;
+            }
+        }
+        steps += count;
+        out.flush();
+        return result;
+    }
+
+    private int readInput() throws IOException {
+        while (true) {
+            out.print("Enter value for IN instruction: ");
+            out.flush();
+            String line = in.readLine();
+            if (line == null) throw new EOFException("No more input for IN instruction");
+            try {
+                return Integer.parseInt(line.trim());
+            } catch (NumberFormatException e) {
+                out.println("Illegal value");
+            }
+        }
+    }
+
+    public String formatInstruction(int loc) {
+        int op = iop[loc];
+        String s = String.format("%5d: %6s%3d,", loc, OPCODE_NAMES[op], iarg1[loc]);
+        if (isRegisterOnly(op)) return s + iarg2[loc] + "," + iarg3[loc];
+        return s + String.format("%3d(%d)", iarg2[loc], iarg3[loc]);
+    }
+
+    public static void main(String[] argv) {
+        boolean trace = false;
+        boolean count = false;
+        int dataSize = DEFAULT_DATA_SIZE;
+        String file = null;
+
+        for (int i = 0; i < argv.length; i++) {
+            if (argv[i].equals("-t")) trace = true;
+            else if (argv[i].equals("-p")) count = true;
+            else if (argv[i].equals("-d") && i + 1 < argv.length) dataSize = Integer.parseInt(argv[++i]);
+            else file = argv[i];
+        }
+        if (file == null) {
+            System.out.println("usage: java TMMachine [-t] [-p] [-d <dataSize>] <filename>");
+            System.exit(1);
+        }
+
+        TMMachine machine = new TMMachine(dataSize);
+        machine.setTrace(trace);
+        try (Reader reader = new FileReader(file)) {
+            machine.load(reader);
+        } catch (FileNotFoundException e) {
+            System.out.println("file '" + file + "' not found");
+            System.exit(1);
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            System.exit(1);
+        }
+
+        try {
+            int result = machine.run();
+            if (count) System.out.println("Number of instructions executed = " + machine.getSteps());
+            System.out.println(RESULT_NAMES[result]);
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -1,47 +1,58 @@
 import java.io.*;
+import java.util.Arrays;
 
+/*
+  Collects emitted TM instructions in memory and writes the .tm file once, at
+  close(). Instructions are kept in primitive arrays indexed by location, so
+  emitBackup/emitRestore overwrite the skipped slot in place and passes run
+  after code generation can inspect or rewrite the code before it is written.
+  Comment lines are kept separately together with the location they precede.
+*/
 public class TMWriter {
-    private final BufferedWriter writer;
+    private static final int EMPTY = -1;
+
+    private final Writer out;
     private int emitLoc = 0;
     private int highEmitLoc = 0;
+    private TMMachine machine;
+
+    // instruction memory: one entry per location, EMPTY for skipped slots
+    private int[] ops = new int[256];
+    private int[] arg1 = new int[256];
+    private int[] arg2 = new int[256];
+    private int[] arg3 = new int[256];
+    private String[] remarks = new String[256];
+
+    // standalone lines (comments, labels) in emission order with the location they precede
+    private int[] lineLocs = new int[128];
+    private String[] lines = new String[128];
+    private int lineCount = 0;
 
     public TMWriter(Writer out) {
-        this.writer = new BufferedWriter(out);
+        this.out = out;
+        Arrays.fill(ops, EMPTY);
+    }
+
+    // Also load the code into an in-process TM machine when it is closed.
+    public void setMachine(TMMachine machine) {
+        this.machine = machine;
     }
 
     public void emitComment(String comment) throws IOException {
-        writer.write("* " + comment + "\n");
+        addLine("* " + comment);
     }
 
     public void emitRM(String opcode, int r, int d, int s, String comment) throws IOException {
-        writer.write(String.format("%3d:  %-5s %d, %d(%d)", emitLoc, opcode, r, d, s));
-        if (comment != null && !comment.isEmpty()) {
-            writer.write("\t* " + comment);
-        }
-        writer.write("\n");
-        emitLoc++;
-        if (highEmitLoc < emitLoc) highEmitLoc = emitLoc;
+        put(opcode(opcode), r, d, s, comment);
     }
 
     public void emitRO(String opcode, int r, int s, int t, String comment) throws IOException {
-        writer.write(String.format("%3d:  %-5s %d, %d, %d", emitLoc, opcode, r, s, t));
-        if (comment != null && !comment.isEmpty()) {
-            writer.write("\t* " + comment);
-        }
-        writer.write("\n");
-        emitLoc++;
-        if (highEmitLoc < emitLoc) highEmitLoc = emitLoc;
+        put(opcode(opcode), r, s, t, comment);
     }
 
     public void emitRM_Abs(String opcode, int r, int a, String comment) throws IOException {
         int relativeAddr = a - (emitLoc + 1);
-        writer.write(String.format("%3d:  %-5s %d, %d(%d)", emitLoc, opcode, r, relativeAddr, 7));
-        if (comment != null && !comment.isEmpty()) {
-            writer.write("\t* " + comment);
-        }
-        writer.write("\n");
-        emitLoc++;
-        if (highEmitLoc < emitLoc) highEmitLoc = emitLoc;
+        put(opcode(opcode), r, relativeAddr, 7, comment);
     }
 
     public int emitSkip(int distance) {
@@ -63,16 +74,21 @@ public class TMWriter {
     }
 
     public void emitLabel(int label) throws IOException {
-        writer.write(String.format("L%d:\n", label));
+        addLine("L" + label + ":");
     }
 
     public void emitGotoLabel(String label) throws IOException {
-        writer.write(String.format("    JMP %s\n", label));
+        addLine("    JMP " + label);
     }
 
     public void close() throws IOException {
-        writer.flush();
-        writer.close();
+        if (machine != null) {
+            for (int loc = 0; loc < highEmitLoc; loc++) {
+                if (ops[loc] != EMPTY) machine.setInstruction(loc, ops[loc], arg1[loc], arg2[loc], arg3[loc]);
+            }
+        }
+        writeTo(out);
+        out.close();
     }
 
     public int getCurrentLoc() {
@@ -86,4 +102,141 @@ public class TMWriter {
     public int getHighEmitLoc() {
         return highEmitLoc;
     }
+
+    // Accessors for passes that rewrite the buffered code before close().
+    public boolean isEmitted(int loc) {
+        return loc < ops.length && ops[loc] != EMPTY;
+    }
+
+    public int getOpcode(int loc) {
+        return ops[loc];
+    }
+
+    public int getArg1(int loc) {
+        return arg1[loc];
+    }
+
+    public int getArg2(int loc) {
+        return arg2[loc];
+    }
+
+    public int getArg3(int loc) {
+        return arg3[loc];
+    }
+
+    public String getRemark(int loc) {
+        return remarks[loc];
+    }
+
+    public void setInstruction(int loc, int op, int r, int s, int t, String comment) {
+        ensureCapacity(loc);
+        ops[loc] = op;
+        arg1[loc] = r;
+        arg2[loc] = s;
+        arg3[loc] = t;
+        remarks[loc] = comment;
+    }
+
+    /*
+      Squeeze out the instructions flagged in 'remove'. 'map' gives the new
+      location of every old one (and of the end of the code); comment lines
+      move along with the location they precede. Operands are not touched.
+    */
+    public void compact(boolean[] remove, int[] map) {
+        int end = highEmitLoc;
+        for (int loc = 0; loc < end; loc++) {
+            if (remove[loc]) continue;
+            int to = map[loc];
+            ops[to] = ops[loc];
+            arg1[to] = arg1[loc];
+            arg2[to] = arg2[loc];
+            arg3[to] = arg3[loc];
+            remarks[to] = remarks[loc];
+        }
+        highEmitLoc = map[end];
+        Arrays.fill(ops, highEmitLoc, end, EMPTY);
+        Arrays.fill(remarks, highEmitLoc, end, null);
+        for (int i = 0; i < lineCount; i++) {
+            lineLocs[i] = map[Math.min(lineLocs[i], end)];
+        }
+        emitLoc = highEmitLoc;
+    }
+
+    // -1 from TMMachine.opcode would be stored as an EMPTY slot and silently dropped.
+    private static int opcode(String name) {
+        int op = TMMachine.opcode(name);
+        if (op < 0) throw new IllegalArgumentException("unknown TM opcode " + name);
+        return op;
+    }
+
+    private void put(int op, int r, int s, int t, String comment) {
+        setInstruction(emitLoc, op, r, s, t, comment);
+        emitLoc++;
+        if (highEmitLoc < emitLoc) highEmitLoc = emitLoc;
+    }
+
+    private void addLine(String text) {
+        if (lineCount == lines.length) {
+            lines = Arrays.copyOf(lines, lineCount * 2);
+            lineLocs = Arrays.copyOf(lineLocs, lineCount * 2);
+        }
+        lineLocs[lineCount] = emitLoc;
+        lines[lineCount++] = text;
+    }
+
+    private void ensureCapacity(int loc) {
+        if (loc < ops.length) return;
+        int size = Math.max(loc + 1, ops.length * 2);
+        int old = ops.length;
+        ops = Arrays.copyOf(ops, size);
+        Arrays.fill(ops, old, size, EMPTY);
+        arg1 = Arrays.copyOf(arg1, size);
+        arg2 = Arrays.copyOf(arg2, size);
+        arg3 = Arrays.copyOf(arg3, size);
+        remarks = Arrays.copyOf(remarks, size);
+    }
+
+    /*
+      Serialize the buffer in location order. Standalone lines come before the
+      instruction at their location, keeping their emission order; skipped
+      slots that were never filled are left out like before.
+    */
+    private void writeTo(Writer out) throws IOException {
+        Integer[] order = new Integer[lineCount];
+        for (int i = 0; i < lineCount; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Integer.compare(lineLocs[a], lineLocs[b]));
+
+        StringBuilder sb = new StringBuilder(64 * (highEmitLoc + lineCount + 1));
+        int next = 0;
+        for (int loc = 0; loc < highEmitLoc; loc++) {
+            while (next < lineCount && lineLocs[order[next]] <= loc) {
+                sb.append(lines[order[next++]]).append('\n');
+            }
+            if (ops[loc] != EMPTY) formatInstruction(sb, loc);
+        }
+        while (next < lineCount) {
+            sb.append(lines[order[next++]]).append('\n');
+        }
+        out.write(sb.toString());
+    }
+
+    // Same layout as "%3d:  %-5s %d, %d(%d)" / "%3d:  %-5s %d, %d, %d".
+    private void formatInstruction(StringBuilder sb, int loc) {
+        if (loc < 10) sb.append("  ");
+        else if (loc < 100) sb.append(' ');
+        sb.append(loc).append(":  ");
+        String name = TMMachine.OPCODE_NAMES[ops[loc]];
+        sb.append(name);
+        for (int i = name.length(); i < 5; i++) sb.append(' ');
+        sb.append(' ').append(arg1[loc]).append(", ").append(arg2[loc]);
+        if (TMMachine.isRegisterOnly(ops[loc])) {
+            sb.append(", ").append(arg3[loc]);
+        } else {
+            sb.append('(').append(arg3[loc]).append(')');
+        }
+        if (remarks[loc] != null && !remarks[loc].isEmpty()) {
+            sb.append("\t* ").append(remarks[loc]);
+        }
+        sb.append('\n');
+    }
 }
@@ -4,6 +4,7 @@ public class ArrayDec extends VarDec{
     public String name;
     public int size;
     public NameTy type;
+    public int nameId = -1;
 
     public ArrayDec ( int row, int col, NameTy type, String name, int size ) {
         this.row = row;
@@ -13,6 +14,11 @@ public class ArrayDec extends VarDec{
         this.size = size;
     }
 
+    public ArrayDec ( int row, int col, NameTy type, Name name, int size ) {
+        this( row, col, type, name.text, size );
+        this.nameId = name.id;
+    }
+
     public void accept( AbsynVisitor visitor, int level, boolean flag ) {
         visitor.visit( this, level, flag );
     }
@@ -5,6 +5,7 @@ public class CallExp extends Exp
     public String func;
     public ExpList args;
     public FunctionDec funcDef;
+    public int nameId = -1;
 
     public CallExp (int row, int col, String func, ExpList args)
     {
@@ -14,6 +15,12 @@ public class CallExp extends Exp
         this.args = args;
     }
     
+    public CallExp (int row, int col, Name func, ExpList args)
+    {
+        this(row, col, func.text, args);
+        this.nameId = func.id;
+    }
+
     public void accept( AbsynVisitor visitor, int level, boolean flag ) {
         visitor.visit( this, level, flag );
     }
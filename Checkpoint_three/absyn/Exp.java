@@ -2,4 +2,5 @@ package absyn;
 
 abstract public class Exp extends Absyn {
     public Dec dtype;
+    public String expType; // "int", "bool", "void" or "unknown", set by the semantic analyzer
 }
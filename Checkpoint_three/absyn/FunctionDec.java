@@ -5,6 +5,10 @@ public class FunctionDec extends Dec{
     public VarDecList parameters;
     public Exp body;
     public int funaddr;
+    //link to the prototype declared earlier, if any
+    public FunctionDec prototype;
+    // id of func_name in the file's NameTable (NameTable.INPUT/OUTPUT for the built-ins)
+    public int nameId = -1;
 
     public FunctionDec (int row, int col, NameTy return_type, String func_name, VarDecList parameters, Exp body) {
         this.row = row;
@@ -15,6 +19,11 @@ public class FunctionDec extends Dec{
         this.body = body;
     }
 
+    public FunctionDec (int row, int col, NameTy return_type, Name func_name, VarDecList parameters, Exp body) {
+        this(row, col, return_type, func_name.text, parameters, body);
+        this.nameId = func_name.id;
+    }
+
     public void accept( AbsynVisitor visitor, int level, boolean flag ) {
         visitor.visit( this, level, flag );
     }
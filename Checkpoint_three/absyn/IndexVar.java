@@ -3,6 +3,7 @@ package absyn;
 public class IndexVar extends Var {
     public String name;
     public Exp index;
+    public int nameId = -1;
 
     public IndexVar ( int row, int col, String name, Exp index ) {
         this.row = row;
@@ -11,6 +12,11 @@ public class IndexVar extends Var {
         this.index = index;
     }
 
+    public IndexVar ( int row, int col, Name name, Exp index ) {
+        this( row, col, name.text, index );
+        this.nameId = name.id;
+    }
+
     public void accept( AbsynVisitor visitor, int level, boolean flag ) {
         visitor.visit( this, level, flag );
     }
@@ -1,9 +1,9 @@
 package absyn;
 
 public class IntExp extends Exp {
-  public String value;
+  public int value;
 
-  public IntExp( int row, int col, String value ) {
+  public IntExp( int row, int col, int value ) {
     this.row = row;
     this.col = col;
     this.value = value;
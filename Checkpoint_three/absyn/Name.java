@@ -0,0 +1,20 @@
+package absyn;
+
+/*
+  An identifier as the lexer hands it to the parser: the text and its dense
+  id in the file's NameTable. Two occurrences of the same identifier share
+  one Name, so later phases can compare and look up names by id.
+*/
+public final class Name {
+    public final int id;
+    public final String text;
+
+    Name(int id, String text) {
+        this.id = id;
+        this.text = text;
+    }
+
+    public String toString() {
+        return text;
+    }
+}
@@ -0,0 +1,81 @@
+package absyn;
+
+import java.util.Arrays;
+
+/*
+  Interns the identifiers of one source file. Every distinct spelling gets
+  the next id (0, 1, 2, ...) and one Name object, and the symbol table
+  indexes its bindings by that id instead of hashing strings. The lexer
+  looks names up straight from its buffer, so an identifier that was seen
+  before costs no allocation.
+
+  The built-in functions are interned first, so their ids are the same in
+  every table.
+*/
+public class NameTable {
+
+    public static final int INPUT = 0;
+    public static final int OUTPUT = 1;
+
+    // open addressing on the hash of the characters; slots hold id + 1, 0 is empty
+    private int[] slots = new int[256];
+    private Name[] names = new Name[128];
+    private int count = 0;
+
+    public NameTable() {
+        intern("input");
+        intern("output");
+    }
+
+    public Name intern(String text) {
+        return intern(text.toCharArray(), 0, text.length());
+    }
+
+    public Name intern(char[] buf, int start, int length) {
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + buf[start + i];
+        }
+        int mask = slots.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (slots[slot] != 0) {
+            Name name = names[slots[slot] - 1];
+            if (matches(name.text, buf, start, length)) return name;
+            slot = (slot + 1) & mask;
+        }
+
+        Name name = new Name(count, new String(buf, start, length));
+        if (count == names.length) names = Arrays.copyOf(names, count * 2);
+        names[count++] = name;
+        slots[slot] = count;
+        if (count * 2 > slots.length) rehash();
+        return name;
+    }
+
+    public Name get(int id) {
+        return names[id];
+    }
+
+    public int size() {
+        return count;
+    }
+
+    private static boolean matches(String text, char[] buf, int start, int length) {
+        if (text.length() != length) return false;
+        for (int i = 0; i < length; i++) {
+            if (text.charAt(i) != buf[start + i]) return false;
+        }
+        return true;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int id = 0; id < count; id++) {
+            int hash = names[id].text.hashCode();
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            while (slots[slot] != 0) slot = (slot + 1) & mask;
+            slots[slot] = id + 1;
+        }
+    }
+}
@@ -2,6 +2,7 @@ package absyn;
 public class SimpleDec extends VarDec {
     public NameTy type;
     public String name;
+    public int nameId = -1;
 
     public SimpleDec ( int row, int col, NameTy type, String name ) {
         this.row = row;
@@ -10,6 +11,11 @@ public class SimpleDec extends VarDec {
         this.name = name;
     }
 
+    public SimpleDec ( int row, int col, NameTy type, Name name ) {
+        this( row, col, type, name.text );
+        this.nameId = name.id;
+    }
+
     public void accept( AbsynVisitor visitor, int level, boolean flag ) {
         visitor.visit( this, level, flag );
     }
@@ -1,6 +1,8 @@
 package absyn;
 public class SimpleVar extends Var{
     public String name;
+    // NameTable id of 'name', -1 if it did not come from the lexer
+    public int nameId = -1;
 
     public SimpleVar ( int row, int col, String name ) {
         this.row = row;
@@ -8,6 +10,11 @@ public class SimpleVar extends Var{
         this.name = name;
     }
 
+    public SimpleVar ( int row, int col, Name name ) {
+        this( row, col, name.text );
+        this.nameId = name.id;
+    }
+
     public void accept( AbsynVisitor visitor, int level, boolean flag ) {
         visitor.visit( this, level, flag );
     }
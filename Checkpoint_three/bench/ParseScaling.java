@@ -0,0 +1,56 @@
+import java.io.StringReader;
+import absyn.*;
+
+/*
+  Parse-time scaling check for the list rules in cminus.cup. Builds programs
+  whose main (and one call) grows to N statements, arguments and globals and
+  times the parse for doubling N. With O(1) list appends the time per
+  statement stays flat; walking the list on every append made it grow with N.
+
+  Build and run from Checkpoint_three after "make":
+    make bench
+    java -cp /usr/share/java/cup.jar:.:bench ParseScaling [maxStatements]
+*/
+public class ParseScaling {
+
+    public static void main(String[] args) throws Exception {
+        int max = args.length > 0 ? Integer.parseInt(args[0]) : 160000;
+
+        // warm up the parser tables and the JIT
+        for (int i = 0; i < 5; i++) parse(program(5000));
+
+        System.out.printf("%10s %12s %14s%n", "statements", "parse ms", "ns/statement");
+        for (int n = 10000; n <= max; n *= 2) {
+            String source = program(n);
+            long best = Long.MAX_VALUE;
+            for (int run = 0; run < 3; run++) {
+                long start = System.nanoTime();
+                Absyn tree = parse(source);
+                long elapsed = System.nanoTime() - start;
+                if (tree == null) throw new IllegalStateException("parse failed for n=" + n);
+                best = Math.min(best, elapsed);
+            }
+            System.out.printf("%10d %12.1f %14.1f%n", n, best / 1e6, (double) best / n);
+        }
+    }
+
+    private static Absyn parse(String source) throws Exception {
+        parser p = new parser(new Lexer(new StringReader(source)));
+        return (Absyn) p.parse().value;
+    }
+
+    // n statements in main, n/10 globals and locals, and a call with n/10 arguments
+    private static String program(int n) {
+        StringBuilder sb = new StringBuilder(n * 16);
+        int decls = Math.max(1, n / 10);
+        for (int i = 0; i < decls; i++) sb.append("int g").append(i).append(";\n");
+        sb.append("int f(int a) { return a; }\n");
+        sb.append("void main(void) {\n");
+        for (int i = 0; i < decls; i++) sb.append("  int x").append(i).append(";\n");
+        for (int i = 0; i < n; i++) sb.append("  x0 = x0 + ").append(i % 100).append(";\n");
+        sb.append("  f(0");
+        for (int i = 1; i < decls; i++) sb.append(", ").append(i);
+        sb.append(");\n}\n");
+        return sb.toString();
+    }
+}
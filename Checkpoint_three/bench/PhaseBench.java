@@ -0,0 +1,402 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.file.*;
+import java.util.*;
+import absyn.*;
+import diag.Diagnostics;
+import Symbol.AnalyzerPrinter;
+import Symbol.SemanticAnalyzer;
+import trace.Trace;
+
+/*
+  Throughput and allocation benchmark for each compiler phase: the lexer
+  (Lexer.next_token), the parser (parser.parse, lexing included), semantic
+  analysis (SemanticAnalyzer.analyze), code generation (CodeGenerator.visit,
+  writing included) and writing buffered TM code (TMWriter emit and close).
+
+  Every phase runs on the sample programs in the current directory and on
+  two generated programs of about 1,000 and 10,000 statements. A sample only
+  takes part in a phase when the phases before it accept it, so 5.cm (a
+  syntax error) is lexed and parsed but never analyzed.
+
+  The measurement follows JMH's scheme by hand, as this build has no JMH on
+  its classpath: warmup iterations, then measured iterations of a fixed
+  number of operations, reporting the mean and spread of time per operation
+  and the bytes allocated per operation by the running thread. Trees that
+  an operation modifies (analysis annotates them, code generation reads the
+  annotations) are built before the timer starts, one per operation.
+
+  Build and run from Checkpoint_three after "make":
+    make bench
+    java -cp /usr/share/java/cup.jar:.:bench PhaseBench [options]
+
+  Options:
+    -phase=lexer,parser,analyzer,codegen,tmwriter   phases to run (default all)
+    -input=samples,synthetic-1k,synthetic-10k      inputs to run (default all)
+    -warmup=N -iterations=N   iterations per benchmark (default 5 and 10)
+    -time=ms                  target length of one iteration (default 200)
+    -O                        fold constants before code generation and
+                              generate with register allocation, condition
+                              lowering and the peephole pass
+    -save=file                write the results for a later -compare
+    -compare=file             report each benchmark against a saved run and
+                              exit with 1 if one got slower by more than
+                              -tolerance percent (default 15)
+*/
+public class PhaseBench {
+
+    private static final String[] PHASES = { "lexer", "parser", "analyzer", "codegen", "tmwriter" };
+
+    // results go here so the JIT can't drop the work that produced them
+    static volatile long sink;
+
+    private static boolean optimize = false;
+
+    // One phase on one input. prepare() builds the state for 'ops' operations outside the timer.
+    private interface Workload {
+        Object prepare(int ops) throws Exception;
+        void run(Object state, int op) throws Exception;
+    }
+
+    private record Input(String name, List<String> sources, long chars) {}
+
+    private record Measurement(String phase, String input, int ops, double nsPerOp, double error, double bytesPerOp, double charsPerSecond) {}
+
+    public static void main(String[] args) throws Exception {
+        List<String> phases = listArg(args, "-phase=", PHASES);
+        List<String> inputNames = listArg(args, "-input=", new String[] { "samples", "synthetic-1k", "synthetic-10k" });
+        int warmup = intArg(args, "-warmup=", 5);
+        int iterations = intArg(args, "-iterations=", 10);
+        long targetNanos = intArg(args, "-time=", 200) * 1_000_000L;
+        optimize = Arrays.asList(args).contains("-O");
+        String save = Main.argValue("-save=", args);
+        String compare = Main.argValue("-compare=", args);
+        int tolerance = intArg(args, "-tolerance=", 15);
+
+        List<Input> inputs = new ArrayList<>();
+        for (String name : inputNames) {
+            switch (name) {
+                case "samples": inputs.add(input(name, samples())); break;
+                case "synthetic-1k": inputs.add(input(name, List.of(synthetic(1000)))); break;
+                case "synthetic-10k": inputs.add(input(name, List.of(synthetic(10000)))); break;
+                default: throw new IllegalArgumentException("unknown input " + name);
+            }
+        }
+
+        System.out.printf("%-9s %-14s %8s %14s %10s %14s %12s%n",
+            "phase", "input", "ops", "us/op", "+-", "bytes/op", "MB/s source");
+        List<Measurement> results = new ArrayList<>();
+        for (String phase : phases) {
+            for (Input input : inputs) {
+                Input accepted = accepted(phase, input);
+                if (accepted.sources().isEmpty()) continue;
+                Measurement m = measure(phase, accepted, workload(phase, accepted.sources()), warmup, iterations, targetNanos);
+                results.add(m);
+                System.out.printf("%-9s %-14s %8d %14.2f %10.2f %14.0f %12.2f%n", m.phase(), m.input(), m.ops(),
+                    m.nsPerOp() / 1e3, m.error() / 1e3, m.bytesPerOp(), m.charsPerSecond() / 1e6);
+            }
+        }
+
+        if (save != null) save(results, save);
+        if (compare != null && !compare(results, compare, tolerance)) System.exit(1);
+    }
+
+    /*
+      Calibrate the number of operations so one iteration takes about
+      'targetNanos', run the warmup iterations, then time the measured ones.
+    */
+    private static Measurement measure(String phase, Input input, Workload workload, int warmup, int iterations, long targetNanos) throws Exception {
+        int ops = 1;
+        while (ops < (1 << 20)) {
+            long[] sample = iteration(workload, ops);
+            if (sample[0] >= targetNanos / 2) break;
+            ops *= 2;
+        }
+        for (int i = 0; i < warmup; i++) iteration(workload, ops);
+
+        double[] nsPerOp = new double[iterations];
+        double bytes = 0;
+        for (int i = 0; i < iterations; i++) {
+            long[] sample = iteration(workload, ops);
+            nsPerOp[i] = (double) sample[0] / ops;
+            bytes += (double) sample[1] / ops;
+        }
+        double mean = 0;
+        for (double v : nsPerOp) mean += v;
+        mean /= iterations;
+        double variance = 0;
+        for (double v : nsPerOp) variance += (v - mean) * (v - mean);
+        double error = iterations > 1 ? Math.sqrt(variance / (iterations - 1)) : 0;
+        return new Measurement(phase, input.name(), ops, mean, error, bytes / iterations, input.chars() / (mean / 1e9));
+    }
+
+    // {elapsed nanoseconds, bytes allocated by this thread} for 'ops' operations
+    private static long[] iteration(Workload workload, int ops) throws Exception {
+        Object state = workload.prepare(ops);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long allocated = threads.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        for (int op = 0; op < ops; op++) workload.run(state, op);
+        long elapsed = System.nanoTime() - start;
+        return new long[] { elapsed, threads.getCurrentThreadAllocatedBytes() - allocated };
+    }
+
+    private static Workload workload(String phase, List<String> sources) throws Exception {
+        switch (phase) {
+            case "lexer":
+                return new Workload() {
+                    public Object prepare(int ops) { return null; }
+                    public void run(Object state, int op) throws Exception {
+                        for (String source : sources) {
+                            Lexer lexer = new Lexer(new StringReader(source));
+                            int tokens = 0;
+                            while (lexer.next_token() != null) tokens++;
+                            sink += tokens;
+                        }
+                    }
+                };
+            case "parser":
+                return new Workload() {
+                    public Object prepare(int ops) { return null; }
+                    public void run(Object state, int op) throws Exception {
+                        for (String source : sources) sink += parse(source).hashCode();
+                    }
+                };
+            case "analyzer":
+                return new Workload() {
+                    public Object prepare(int ops) throws Exception {
+                        DecList[][] trees = new DecList[ops][sources.size()];
+                        for (int op = 0; op < ops; op++) {
+                            for (int i = 0; i < sources.size(); i++) trees[op][i] = parse(sources.get(i));
+                        }
+                        return trees;
+                    }
+                    public void run(Object state, int op) {
+                        for (DecList tree : ((DecList[][]) state)[op]) {
+                            SemanticAnalyzer analyzer = analyzer();
+                            analyzer.analyze(tree);
+                            sink += analyzer.hasErrors() ? 1 : 0;
+                        }
+                    }
+                };
+            case "codegen":
+                return new Workload() {
+                    public Object prepare(int ops) throws Exception {
+                        DecList[][] trees = new DecList[ops][sources.size()];
+                        for (int op = 0; op < ops; op++) {
+                            for (int i = 0; i < sources.size(); i++) trees[op][i] = analyzed(sources.get(i));
+                        }
+                        return trees;
+                    }
+                    public void run(Object state, int op) throws Exception {
+                        for (DecList tree : ((DecList[][]) state)[op]) {
+                            Writer out = Writer.nullWriter();
+                            CodeGenerator generator = new CodeGenerator(out);
+                            generator.setRegisterAllocation(optimize);
+                            generator.setConditionLowering(optimize);
+                            if (optimize) generator.setPeephole(new PeepholeOptimizer());
+                            generator.visit(tree);
+                        }
+                    }
+                };
+            case "tmwriter": {
+                List<List<String[]>> programs = new ArrayList<>();
+                for (String source : sources) programs.add(emitted(source));
+                return new Workload() {
+                    public Object prepare(int ops) { return null; }
+                    public void run(Object state, int op) throws IOException {
+                        for (List<String[]> program : programs) replay(program, Writer.nullWriter());
+                    }
+                };
+            }
+            default:
+                throw new IllegalArgumentException("unknown phase " + phase);
+        }
+    }
+
+    // The part of 'input' that every phase up to 'phase' accepts.
+    private static Input accepted(String phase, Input input) throws Exception {
+        int depth = Arrays.asList(PHASES).indexOf(phase);
+        if (depth < 0) throw new IllegalArgumentException("unknown phase " + phase);
+        List<String> kept = new ArrayList<>();
+        for (String source : input.sources()) {
+            if (depth >= 1 && !parses(source)) continue;
+            if (depth >= 2 && !parsesCleanly(source)) continue;
+            if (depth >= 3 && !analyzesCleanly(source)) continue;
+            kept.add(source);
+        }
+        if (kept.size() != input.sources().size() && !input.name().equals("samples")) {
+            throw new IllegalStateException(input.name() + " does not compile cleanly");
+        }
+        return input(input.name(), kept);
+    }
+
+    private static DecList parse(String source) throws Exception {
+        parser p = new parser(new Lexer(new StringReader(source)));
+        return (DecList) p.parse().value;
+    }
+
+    private static boolean parses(String source) {
+        try {
+            return parse(source) != null;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static boolean parsesCleanly(String source) {
+        try {
+            parser p = new parser(new Lexer(new StringReader(source)));
+            return p.parse().value != null && p.valid;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static boolean analyzesCleanly(String source) throws Exception {
+        SemanticAnalyzer analyzer = analyzer();
+        analyzer.analyze(parse(source));
+        return !analyzer.hasErrors();
+    }
+
+    private static SemanticAnalyzer analyzer() {
+        return new SemanticAnalyzer(new AnalyzerPrinter((Writer) null, Trace.SEMANTIC), new Diagnostics());
+    }
+
+    private static DecList analyzed(String source) throws Exception {
+        DecList tree = parse(source);
+        analyzer().analyze(tree);
+        if (optimize) tree.accept(new ConstantFolder(), 0, false);
+        return tree;
+    }
+
+    // The instructions and comment lines CodeGenerator writes for 'source', as parsed from the .tm text.
+    private static List<String[]> emitted(String source) throws Exception {
+        StringWriter out = new StringWriter();
+        CodeGenerator generator = new CodeGenerator(out);
+        generator.setRegisterAllocation(optimize);
+        generator.setConditionLowering(optimize);
+        if (optimize) generator.setPeephole(new PeepholeOptimizer());
+        generator.visit(analyzed(source));
+
+        List<String[]> program = new ArrayList<>();
+        for (String line : out.toString().split("\n")) {
+            if (line.startsWith("* ")) {
+                program.add(new String[] { line.substring(2) });
+                continue;
+            }
+            // "loc:  OP    r, s(t)\t* remark" or "loc:  OP    r, s, t\t* remark"
+            int colon = line.indexOf(':');
+            if (colon < 0) continue;
+            int tab = line.indexOf('\t');
+            String remark = tab < 0 ? "" : line.substring(tab + 3);
+            String[] parts = (tab < 0 ? line.substring(colon + 1) : line.substring(colon + 1, tab)).trim().split("[\\s,()]+");
+            program.add(new String[] { line.substring(0, colon).trim(), parts[0], parts[1], parts[2], parts[3], remark });
+        }
+        return program;
+    }
+
+    private static void replay(List<String[]> program, Writer out) throws IOException {
+        TMWriter tm = new TMWriter(out);
+        for (String[] line : program) {
+            if (line.length == 1) {
+                tm.emitComment(line[0]);
+                continue;
+            }
+            // emitRM and emitRO store the same fields; only the printed layout depends on the opcode
+            tm.setCurrentLoc(Integer.parseInt(line[0]));
+            tm.emitRO(line[1], Integer.parseInt(line[2]), Integer.parseInt(line[3]), Integer.parseInt(line[4]), line[5]);
+        }
+        tm.close();
+    }
+
+    private static Input input(String name, List<String> sources) {
+        long chars = 0;
+        for (String source : sources) chars += source.length();
+        return new Input(name, sources, chars);
+    }
+
+    // 0.cm, 1.cm, ... in the current directory, in numeric order
+    private static List<String> samples() throws IOException {
+        List<String> sources = new ArrayList<>();
+        for (int i = 0; Files.exists(Path.of(i + ".cm")); i++) {
+            sources.add(Files.readString(Path.of(i + ".cm")));
+        }
+        if (sources.isEmpty()) throw new FileNotFoundException("no 0.cm in " + Path.of("").toAbsolutePath());
+        return sources;
+    }
+
+    /*
+      A program of about 'statements' statements: functions with loops,
+      branches, array and arithmetic work, and a main that calls them all.
+    */
+    static String synthetic(int statements) {
+        int functions = Math.max(1, statements / 20);
+        StringBuilder sb = new StringBuilder(statements * 40);
+        sb.append("int total;\nint table[100];\n\n");
+        for (int f = 0; f < functions; f++) {
+            sb.append("int f").append(f).append("(int n, int a[]) {\n");
+            sb.append("  int i;\n  int sum;\n  bool done;\n");
+            sb.append("  i = 0;\n  sum = ").append(f).append(";\n  done = false;\n");
+            sb.append("  while (i < n && ~done) {\n");
+            sb.append("    a[i] = a[i] + i * ").append(f % 7 + 2).append(" - sum / 3;\n");
+            sb.append("    sum = sum + a[i];\n");
+            sb.append("    if (sum > ").append(1000 + f).append(") done = true;\n");
+            sb.append("    else sum = sum - (i + 1) * 2;\n");
+            sb.append("    table[i] = sum;\n");
+            sb.append("    i = i + 1;\n  }\n");
+            sb.append("  if (sum >= 0 || n == 0) total = total + sum;\n");
+            sb.append("  else total = total - sum;\n");
+            sb.append("  return sum + 4 * 5 - 20;\n}\n\n");
+        }
+        sb.append("void main(void) {\n  int x;\n  int data[100];\n  x = input();\n  total = 0;\n");
+        for (int f = 0; f < functions; f++) {
+            sb.append("  x = f").append(f).append("(x, data);\n");
+        }
+        sb.append("  output(x);\n  output(total);\n}\n");
+        return sb.toString();
+    }
+
+    private static void save(List<Measurement> results, String file) throws IOException {
+        try (PrintWriter out = new PrintWriter(new FileWriter(file))) {
+            out.println("# phase input ns/op bytes/op" + (optimize ? " (-O)" : ""));
+            for (Measurement m : results) {
+                out.printf("%s %s %.1f %.0f%n", m.phase(), m.input(), m.nsPerOp(), m.bytesPerOp());
+            }
+        }
+    }
+
+    // Print the change against a saved run; false if any benchmark is slower by more than 'tolerance' percent.
+    private static boolean compare(List<Measurement> results, String file, int tolerance) throws IOException {
+        Map<String, double[]> saved = new HashMap<>();
+        for (String line : Files.readAllLines(Path.of(file))) {
+            if (line.startsWith("#") || line.isBlank()) continue;
+            String[] f = line.trim().split("\\s+");
+            saved.put(f[0] + " " + f[1], new double[] { Double.parseDouble(f[2]), Double.parseDouble(f[3]) });
+        }
+
+        boolean ok = true;
+        System.out.printf("%nagainst %s (tolerance %d%%)%n", file, tolerance);
+        for (Measurement m : results) {
+            double[] before = saved.get(m.phase() + " " + m.input());
+            if (before == null) continue;
+            double time = 100 * (m.nsPerOp() - before[0]) / before[0];
+            double bytes = before[1] == 0 ? 0 : 100 * (m.bytesPerOp() - before[1]) / before[1];
+            boolean regressed = time > tolerance;
+            if (regressed) ok = false;
+            System.out.printf("%-9s %-14s time %+7.1f%%  allocation %+7.1f%%%s%n",
+                m.phase(), m.input(), time, bytes, regressed ? "  REGRESSION" : "");
+        }
+        return ok;
+    }
+
+    private static List<String> listArg(String[] args, String prefix, String[] all) {
+        String value = Main.argValue(prefix, args);
+        return value == null ? Arrays.asList(all) : Arrays.asList(value.split(","));
+    }
+
+    private static int intArg(String[] args, String prefix, int otherwise) {
+        String value = Main.argValue(prefix, args);
+        return value == null ? otherwise : Integer.parseInt(value);
+    }
+}
@@ -0,0 +1,56 @@
+package diag;
+
+/*
+  Every diagnostic the compiler can report, with a stable id for tools and
+  the message format its arguments are filled into. Lexical and syntax
+  errors are E1xx, semantic errors E2xx.
+*/
+public enum Code {
+    SYNTAX("E100", "%s"),
+    INT_OUT_OF_RANGE("E101", "Integer literal %s is out of range"),
+
+    MISSING_MAIN("E200", "Missing main"),
+    FUNCTION_AFTER_MAIN("E201", "Function '%s' is declared after main when main must be the last function"),
+    UNKNOWN_PARAMETER_TYPE("E202", "Unknown parameter type"),
+    PROTOTYPE_REDECLARED("E203", "Function prototype for '%s' is re-declared"),
+    DUPLICATE_FUNCTION("E204", "Duplicate function declaration for '%s'"),
+    PROTOTYPE_MISMATCH("E205", "Function declaration for '%s' does not match prototype"),
+    MISSING_RETURN("E206", "Function '%s' must have a return statement"),
+    DUPLICATE_VARIABLE("E207", "Variable '%s' is already declared in this scope"),
+    DUPLICATE_ARRAY("E208", "Array '%s' is already declared in this scope"),
+    UNDECLARED_VARIABLE("E209", "Variable '%s' is undeclared"),
+    UNDECLARED_ARRAY("E210", "Array '%s' is undeclared"),
+    NOT_AN_ARRAY("E211", "'%s' is not an array"),
+    INDEXED_NON_ARRAY("E212", "Variable '%s' is not an array but was indexed"),
+    INDEX_NOT_INT("E213", "Array index must be of type int but is instead type %s"),
+    INDEX_NOT_INTEGER("E214", "Array index for '%s' must be an integer"),
+    INDEX_IS_ARRAY("E215", "Array index for '%s' cannot be an array"),
+    ASSIGN_TO_NON_VARIABLE("E216", "LHS of assignment is not a variable"),
+    ASSIGN_TYPE_MISMATCH("E217", "Type mismatch in assignment: Cannot assign '%s' to '%s'"),
+    ASSIGN_SCALAR_TO_ARRAY("E218", "Cannot assign a scalar value to an array '%s'"),
+    ARRAY_ARITHMETIC("E219", "Cannot perform arithmetic operation on arrays"),
+    UNARY_MINUS_TYPE("E220", "Unary '-' can only be applied to integers"),
+    UNARY_NOT_TYPE("E221", "Unary '~' can only be applied to bools"),
+    OPERAND_TYPE_MISMATCH("E222", "Type mismatch in operation: Cannot apply operator to '%s' and '%s'"),
+    UNDEFINED_FUNCTION("E223", "Function '%s' is undefined"),
+    ARGUMENT_COUNT("E224", "Function '%s' expects %d arguments but got %d"),
+    ARGUMENT_SHAPE("E225", "Argument %d of function '%s' expects %s but got %s"),
+    ARGUMENT_TYPE("E226", "Argument %d of function '%s' expects type '%s' but got '%s'"),
+    IF_CONDITION_TYPE("E227", "Condition in if-statement must be 'bool' or 'int', but got '%s'"),
+    WHILE_CONDITION_TYPE("E228", "Condition in while-statement must be 'bool' or 'int', but got '%s'"),
+    RETURN_OUTSIDE_FUNCTION("E229", "Return statement found outside of a function"),
+    MISSING_RETURN_VALUE("E230", "Missing return value in non-void function"),
+    RETURN_TYPE("E231", "Function must return '%s', but got '%s'"),
+    UNKNOWN_VARIABLE_TYPE("E232", "Unknown variable type in VarExp"),
+    INVALID_TYPE("E233", "Invalid type"),
+
+    TOO_MANY_ERRORS("E900", "Too many errors (%d), stopping");
+
+    public final String id;
+    public final String format;
+
+    Code(String id, String format) {
+        this.id = id;
+        this.format = format;
+    }
+}
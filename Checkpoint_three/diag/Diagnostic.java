@@ -0,0 +1,44 @@
+package diag;
+
+import java.util.Locale;
+
+/*
+  One reported problem. The arguments are kept as they were passed and only
+  formatted into the message when someone asks for it, so collecting many
+  diagnostics costs an object each and no string building.
+*/
+public final class Diagnostic {
+
+    public enum Severity { ERROR, WARNING, NOTE }
+
+    public final Severity severity;
+    public final Code code;
+    public final int line;      // 1-based, 0 if the diagnostic has no position
+    public final int column;
+    public final Object[] args;
+
+    public Diagnostic(Severity severity, Code code, int line, int column, Object... args) {
+        this.severity = severity;
+        this.code = code;
+        this.line = line;
+        this.column = column;
+        this.args = args;
+    }
+
+    public String message() {
+        return String.format(Locale.ROOT, code.format, args);
+    }
+
+    // The one-line form used on stderr: "[ERROR] message at line L and column C".
+    public String render() {
+        StringBuilder sb = new StringBuilder();
+        sb.append('[').append(severity).append("] ").append(message());
+        if (line > 0) sb.append(" at line ").append(line).append(" and column ").append(column);
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return render();
+    }
+}
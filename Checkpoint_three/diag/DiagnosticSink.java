@@ -0,0 +1,6 @@
+package diag;
+
+// Receives each diagnostic as soon as it is reported.
+public interface DiagnosticSink {
+    void report(Diagnostic diagnostic);
+}
@@ -0,0 +1,85 @@
+package diag;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+  Collects the diagnostics of one compilation and passes each one on to the
+  sinks (stderr text, JSON lines, ...) as it arrives. Once 'limit' errors
+  have been reported a TOO_MANY_ERRORS note is added and LimitReached is
+  thrown, so a phase flooded with errors stops early instead of running on.
+  A limit of 0 means no limit.
+*/
+public class Diagnostics {
+
+    public static final int DEFAULT_LIMIT = 1000;
+
+    // Thrown from report() when the error limit is reached.
+    public static class LimitReached extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public LimitReached(int limit) {
+            super("Too many errors (" + limit + ")", null, false, false);
+        }
+    }
+
+    private final List<Diagnostic> diagnostics = new ArrayList<>();
+    private final List<DiagnosticSink> sinks = new ArrayList<>();
+    private int limit = DEFAULT_LIMIT;
+    private int errorCount = 0;
+    private boolean limitReached = false;
+
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    public void addSink(DiagnosticSink sink) {
+        sinks.add(sink);
+    }
+
+    public void error(Code code, int line, int column, Object... args) {
+        report(new Diagnostic(Diagnostic.Severity.ERROR, code, line, column, args));
+    }
+
+    public void report(Diagnostic diagnostic) {
+        if (limitReached) throw new LimitReached(limit);
+        add(diagnostic);
+        if (diagnostic.severity == Diagnostic.Severity.ERROR && ++errorCount == limit) {
+            limitReached = true;
+            add(new Diagnostic(Diagnostic.Severity.NOTE, Code.TOO_MANY_ERRORS, 0, 0, limit));
+            throw new LimitReached(limit);
+        }
+    }
+
+    private void add(Diagnostic diagnostic) {
+        diagnostics.add(diagnostic);
+        for (DiagnosticSink sink : sinks) sink.report(diagnostic);
+    }
+
+    public boolean hasErrors() {
+        return errorCount > 0;
+    }
+
+    public int getErrorCount() {
+        return errorCount;
+    }
+
+    public boolean isLimitReached() {
+        return limitReached;
+    }
+
+    public List<Diagnostic> getDiagnostics() {
+        return Collections.unmodifiableList(diagnostics);
+    }
+
+    // All diagnostics rendered one per line.
+    public String render() {
+        StringBuilder sb = new StringBuilder();
+        for (Diagnostic diagnostic : diagnostics) {
+            if (sb.length() > 0) sb.append('\n');
+            sb.append(diagnostic.render());
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,70 @@
+package diag;
+
+import java.io.PrintStream;
+
+/*
+  Prints each diagnostic as one JSON object per line for editors and other
+  tools, for example:
+
+    {"file":"a.cm","severity":"error","code":"E209","line":4,"column":3,"message":"Variable 'x' is undeclared","args":["x"]}
+
+  Lines are printed whole, so several compilations can share one stream.
+*/
+public class JsonLinesRenderer implements DiagnosticSink {
+
+    private final PrintStream out;
+    private final String file;
+
+    public JsonLinesRenderer(PrintStream out, String file) {
+        this.out = out;
+        this.file = file;
+    }
+
+    @Override
+    public void report(Diagnostic diagnostic) {
+        out.println(format(diagnostic, file));
+    }
+
+    public static String format(Diagnostic diagnostic, String file) {
+        StringBuilder sb = new StringBuilder(128);
+        sb.append('{');
+        if (file != null) {
+            sb.append("\"file\":");
+            quote(sb, file);
+            sb.append(',');
+        }
+        sb.append("\"severity\":\"").append(diagnostic.severity.name().toLowerCase()).append('"');
+        sb.append(",\"code\":\"").append(diagnostic.code.id).append('"');
+        sb.append(",\"line\":").append(diagnostic.line);
+        sb.append(",\"column\":").append(diagnostic.column);
+        sb.append(",\"message\":");
+        quote(sb, diagnostic.message());
+        sb.append(",\"args\":[");
+        for (int i = 0; i < diagnostic.args.length; i++) {
+            if (i > 0) sb.append(',');
+            Object arg = diagnostic.args[i];
+            if (arg instanceof Number || arg instanceof Boolean) sb.append(arg);
+            else quote(sb, String.valueOf(arg));
+        }
+        sb.append("]}");
+        return sb.toString();
+    }
+
+    private static void quote(StringBuilder sb, String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+}
@@ -0,0 +1,18 @@
+package diag;
+
+import java.io.PrintStream;
+
+// Prints each diagnostic on its own line as it is reported, e.g. to System.err.
+public class TextRenderer implements DiagnosticSink {
+
+    private final PrintStream out;
+
+    public TextRenderer(PrintStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void report(Diagnostic diagnostic) {
+        out.println(diagnostic.render());
+    }
+}
@@ -0,0 +1,28 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+  A basic block: straight-line instructions ending in one terminator. The
+  predecessor and successor lists are filled in by Function.computeEdges().
+*/
+public final class Block {
+    public final int id;
+    public final List<Instr> instrs = new ArrayList<>();
+    public final List<Block> preds = new ArrayList<>();
+    public final List<Block> succs = new ArrayList<>();
+
+    Block(int id) {
+        this.id = id;
+    }
+
+    public Instr terminator() {
+        return instrs.isEmpty() ? null : instrs.get(instrs.size() - 1);
+    }
+
+    public boolean isTerminated() {
+        Instr last = terminator();
+        return last != null && last.isTerminator();
+    }
+}
@@ -0,0 +1,266 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+  Sparse conditional constant propagation (Wegman and Zadeck) on a Function
+  in SSA form. Every register starts out unknown and every edge unreachable;
+  instructions are evaluated only once their block is reached, and a branch
+  on a known condition makes only one of its edges reachable. A register is
+  constant if every reaching definition gives the same value.
+
+  Afterwards the definition of each constant register becomes a CONST, a
+  branch with one reachable edge becomes a JUMP, array index checks on
+  constants that pass are dropped, and blocks never reached are removed
+  (PHIs lose the arguments from them). Uses are left alone; Simplify
+  removes what is left dead.
+*/
+public class ConstantPropagation {
+
+    private static final int UNKNOWN = 0;
+    private static final int CONSTANT = 1;
+    private static final int VARYING = 2;
+
+    private int[] state;
+    private int[] value;
+    private boolean[] reached;
+    // executable[b][k]: the edge from b.preds.get(k) into b has been taken
+    private boolean[][] executable;
+    private List<List<Instr>> users;
+    private final Map<Instr, Block> blockOf = new IdentityHashMap<>();
+    private final List<Block> edgeFrom = new ArrayList<>();
+    private final List<Block> edgeTo = new ArrayList<>();
+    private final List<Instr> instrWork = new ArrayList<>();
+    private int folded;
+
+    // Returns the number of instructions and branches folded.
+    public int run(Function function) {
+        int regs = function.regCount;
+        state = new int[regs];
+        value = new int[regs];
+        reached = new boolean[function.blockCount()];
+        executable = new boolean[function.blockCount()][];
+        users = new ArrayList<>(regs);
+        for (int r = 0; r < regs; r++) users.add(new ArrayList<>());
+        blockOf.clear();
+        for (Block block : function.blocks) {
+            executable[block.id] = new boolean[block.preds.size()];
+            for (Instr instr : block.instrs) {
+                blockOf.put(instr, block);
+                for (int reg : instr.uses()) {
+                    if (reg >= 0) users.get(reg).add(instr);
+                }
+            }
+        }
+
+        addEdge(null, function.entry);
+        while (!edgeTo.isEmpty() || !instrWork.isEmpty()) {
+            while (!edgeTo.isEmpty()) {
+                int last = edgeTo.size() - 1;
+                Block from = edgeFrom.remove(last);
+                Block to = edgeTo.remove(last);
+                visitEdge(from, to);
+            }
+            while (!instrWork.isEmpty()) {
+                Instr instr = instrWork.remove(instrWork.size() - 1);
+                if (reached[blockOf.get(instr).id]) evaluate(instr);
+            }
+        }
+
+        folded = 0;
+        rewrite(function);
+        return folded;
+    }
+
+    private void addEdge(Block from, Block to) {
+        edgeFrom.add(from);
+        edgeTo.add(to);
+    }
+
+    private void visitEdge(Block from, Block to) {
+        if (from != null) {
+            int k = to.preds.indexOf(from);
+            if (executable[to.id][k]) return;
+            executable[to.id][k] = true;
+        }
+        boolean first = !reached[to.id];
+        reached[to.id] = true;
+        for (Instr instr : to.instrs) {
+            // on later visits only the PHIs can change: one more of their arguments counts now
+            if (instr.op != Instr.PHI && !first) break;
+            evaluate(instr);
+        }
+    }
+
+    private boolean isExecutable(Block block, Block pred) {
+        int k = block.preds.indexOf(pred);
+        return k >= 0 && executable[block.id][k];
+    }
+
+    private void evaluate(Instr instr) {
+        Block block = blockOf.get(instr);
+        switch (instr.op) {
+            case Instr.JUMP:
+                addEdge(block, instr.target);
+                return;
+            case Instr.BR: {
+                int a = instr.a;
+                int b = instr.b;
+                if (state[a] == UNKNOWN || (b >= 0 && state[b] == UNKNOWN)) return;
+                if (state[a] == CONSTANT && (b < 0 || state[b] == CONSTANT)) {
+                    boolean taken = compare(instr.imm, value[a], b < 0 ? 0 : value[b]);
+                    addEdge(block, taken ? instr.target : instr.otherwise);
+                } else {
+                    addEdge(block, instr.target);
+                    addEdge(block, instr.otherwise);
+                }
+                return;
+            }
+            case Instr.PHI: {
+                int newState = UNKNOWN;
+                int newValue = 0;
+                for (int k = 0; k < instr.args.length && newState != VARYING; k++) {
+                    int arg = instr.args[k];
+                    if (!isExecutable(block, instr.sources[k]) || (arg >= 0 && state[arg] == UNKNOWN)) continue;
+                    // no value at all along a taken edge: assume nothing about it
+                    if (arg < 0 || state[arg] == VARYING) {
+                        newState = VARYING;
+                    } else if (newState == UNKNOWN) {
+                        newState = CONSTANT;
+                        newValue = value[arg];
+                    } else if (newValue != value[arg]) {
+                        newState = VARYING;
+                    }
+                }
+                update(instr.dst, newState, newValue);
+                return;
+            }
+            default:
+                if (instr.dst >= 0) evaluateValue(instr);
+        }
+    }
+
+    private void evaluateValue(Instr instr) {
+        switch (instr.op) {
+            case Instr.CONST:
+                update(instr.dst, CONSTANT, instr.imm);
+                return;
+            case Instr.COPY:
+            case Instr.NEG:
+                if (state[instr.a] != CONSTANT) {
+                    update(instr.dst, state[instr.a], 0);
+                } else {
+                    update(instr.dst, CONSTANT, instr.op == Instr.NEG ? -value[instr.a] : value[instr.a]);
+                }
+                return;
+            case Instr.ADD: case Instr.SUB: case Instr.MUL: case Instr.DIV:
+            case Instr.EQ: case Instr.NE: case Instr.LT: case Instr.LE: case Instr.GT: case Instr.GE: {
+                int a = state[instr.a];
+                int b = state[instr.b];
+                if (a == VARYING || b == VARYING) {
+                    update(instr.dst, VARYING, 0);
+                } else if (a == CONSTANT && b == CONSTANT) {
+                    int x = value[instr.a];
+                    int y = value[instr.b];
+                    if (instr.op == Instr.DIV && y == 0) {
+                        // leave the division to halt the machine at run time
+                        update(instr.dst, VARYING, 0);
+                    } else {
+                        update(instr.dst, CONSTANT, fold(instr.op, x, y));
+                    }
+                }
+                return;
+            }
+            default:
+                // loads, input and calls
+                update(instr.dst, VARYING, 0);
+        }
+    }
+
+    private void update(int reg, int newState, int newValue) {
+        if (newState == state[reg] && (newState != CONSTANT || newValue == value[reg])) return;
+        state[reg] = newState;
+        value[reg] = newValue;
+        instrWork.addAll(users.get(reg));
+    }
+
+    static int fold(int op, int x, int y) {
+        switch (op) {
+            case Instr.ADD: return x + y;
+            case Instr.SUB: return x - y;
+            case Instr.MUL: return x * y;
+            case Instr.DIV: return x / y;
+            default:        return compare(op, x, y) ? 1 : 0;
+        }
+    }
+
+    static boolean compare(int relation, int x, int y) {
+        switch (relation) {
+            case Instr.EQ: return x == y;
+            case Instr.NE: return x != y;
+            case Instr.LT: return x < y;
+            case Instr.LE: return x <= y;
+            case Instr.GT: return x > y;
+            default:       return x >= y;
+        }
+    }
+
+    private void rewrite(Function function) {
+        for (Block block : function.blocks) {
+            if (!reached[block.id]) continue;
+            List<Instr> instrs = block.instrs;
+            for (int i = 0; i < instrs.size(); i++) {
+                Instr instr = instrs.get(i);
+                if (instr.op == Instr.PHI) {
+                    removeDeadArguments(block, instr);
+                }
+                if (instr.dst >= 0 && instr.op != Instr.CONST && state[instr.dst] == CONSTANT
+                        && (instr.isPure() || instr.op == Instr.DIV)) {
+                    Instr constant = Instr.immediate(Instr.CONST, instr.dst, -1, value[instr.dst]);
+                    if (instr.op == Instr.PHI) {
+                        // the other passes expect a block's PHIs to come first, so the CONST goes after them
+                        instrs.remove(i--);
+                        int at = 0;
+                        while (instrs.get(at).op == Instr.PHI) at++;
+                        instrs.add(at, constant);
+                    } else {
+                        instrs.set(i, constant);
+                    }
+                    folded++;
+                } else if (instr.op == Instr.CHECK && state[instr.a] == CONSTANT && value[instr.a] >= 0) {
+                    instrs.remove(i--);
+                    folded++;
+                } else if (instr.op == Instr.BR) {
+                    boolean toTarget = isExecutable(instr.target, block);
+                    boolean toOtherwise = isExecutable(instr.otherwise, block);
+                    if (toTarget != toOtherwise) {
+                        instrs.set(i, Instr.jump(toTarget ? instr.target : instr.otherwise));
+                        folded++;
+                    }
+                }
+            }
+        }
+        function.computeEdges();
+    }
+
+    private void removeDeadArguments(Block block, Instr phi) {
+        int live = 0;
+        for (int k = 0; k < phi.args.length; k++) {
+            if (isExecutable(block, phi.sources[k])) live++;
+        }
+        if (live == phi.args.length) return;
+        int[] args = new int[live];
+        Block[] sources = new Block[live];
+        int j = 0;
+        for (int k = 0; k < phi.args.length; k++) {
+            if (!isExecutable(block, phi.sources[k])) continue;
+            args[j] = phi.args[k];
+            sources[j++] = phi.sources[k];
+        }
+        phi.args = args;
+        phi.sources = sources;
+    }
+}
@@ -0,0 +1,119 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+  Dominator tree and dominance frontiers of a Function, computed with the
+  iterative algorithm of Cooper, Harvey and Kennedy over the blocks in
+  reverse postorder. Blocks must be linked (Function.computeEdges) first,
+  and the result is stale once the CFG changes.
+*/
+public final class Dominators {
+
+    private final Block[] idom;
+    private final int[] order;
+    private final List<List<Block>> children = new ArrayList<>();
+    private final List<List<Block>> frontiers = new ArrayList<>();
+    // preorder number and subtree end in the dominator tree, for dominates()
+    private final int[] pre;
+    private final int[] last;
+
+    public Dominators(Function function) {
+        int n = function.blockCount();
+        idom = new Block[n];
+        order = new int[n];
+        pre = new int[n];
+        last = new int[n];
+        for (int i = 0; i < n; i++) {
+            children.add(new ArrayList<>());
+            frontiers.add(new ArrayList<>());
+        }
+        List<Block> blocks = function.blocks;
+        for (int i = 0; i < blocks.size(); i++) order[blocks.get(i).id] = i;
+
+        Block entry = function.entry;
+        idom[entry.id] = entry;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Block block : blocks) {
+                if (block == entry) continue;
+                Block dom = null;
+                for (Block pred : block.preds) {
+                    if (idom[pred.id] == null) continue;
+                    dom = dom == null ? pred : intersect(pred, dom);
+                }
+                if (dom != idom[block.id]) {
+                    idom[block.id] = dom;
+                    changed = true;
+                }
+            }
+        }
+
+        for (Block block : blocks) {
+            if (block != entry) children.get(idom[block.id].id).add(block);
+            if (block.preds.size() < 2) continue;
+            for (Block pred : block.preds) {
+                for (Block runner = pred; runner != idom[block.id]; runner = idom[runner.id]) {
+                    List<Block> frontier = frontiers.get(runner.id);
+                    if (!frontier.contains(block)) frontier.add(block);
+                }
+            }
+        }
+        int count = 0;
+        for (Block block : preorder(entry)) pre[block.id] = count++;
+        for (Block block : bottomUp(entry)) {
+            last[block.id] = pre[block.id];
+            for (Block child : children(block)) last[block.id] = Math.max(last[block.id], last[child.id]);
+        }
+    }
+
+    private Block intersect(Block a, Block b) {
+        while (a != b) {
+            while (order[a.id] > order[b.id]) a = idom[a.id];
+            while (order[b.id] > order[a.id]) b = idom[b.id];
+        }
+        return a;
+    }
+
+    // The immediate dominator of 'block'; the entry is its own.
+    public Block idom(Block block) {
+        return idom[block.id];
+    }
+
+    public List<Block> children(Block block) {
+        return children.get(block.id);
+    }
+
+    public List<Block> frontier(Block block) {
+        return frontiers.get(block.id);
+    }
+
+    // True if every path from the entry to 'b' goes through 'a' (a block dominates itself).
+    public boolean dominates(Block a, Block b) {
+        return pre[a.id] <= pre[b.id] && pre[b.id] <= last[a.id];
+    }
+
+    // Dominator tree in preorder: every block comes after its immediate dominator.
+    public List<Block> preorder(Block root) {
+        List<Block> result = new ArrayList<>();
+        List<Block> stack = new ArrayList<>();
+        stack.add(root);
+        while (!stack.isEmpty()) {
+            Block block = stack.remove(stack.size() - 1);
+            result.add(block);
+            List<Block> kids = children(block);
+            for (int i = kids.size() - 1; i >= 0; i--) stack.add(kids.get(i));
+        }
+        return result;
+    }
+
+    // Preorder reversed: every block comes before its immediate dominator.
+    public List<Block> bottomUp(Block root) {
+        List<Block> result = preorder(root);
+        List<Block> reversed = new ArrayList<>(result.size());
+        for (int i = result.size() - 1; i >= 0; i--) reversed.add(result.get(i));
+        return reversed;
+    }
+}
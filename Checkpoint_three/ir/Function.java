@@ -0,0 +1,113 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.List;
+import absyn.FunctionDec;
+
+/*
+  The control-flow graph of one function definition. Blocks are numbered as
+  they are created; after computeEdges() the list holds only the blocks
+  reachable from the entry, in reverse postorder, with their predecessors
+  and successors filled in.
+
+  frameSize is the number of frame slots in memory (saved FP, return
+  address, parameters and local arrays); a backend puts the slots for
+  virtual registers below those.
+*/
+public final class Function {
+    public final String name;
+    public final FunctionDec dec;
+    public final List<Block> blocks = new ArrayList<>();
+    public Block entry;
+    public int regCount = 0;
+    public int frameSize = 2;
+    private int blockCount = 0;
+
+    public Function(String name, FunctionDec dec) {
+        this.name = name;
+        this.dec = dec;
+    }
+
+    public int newReg() {
+        return regCount++;
+    }
+
+    // Upper bound on block ids, for arrays indexed by Block.id.
+    public int blockCount() {
+        return blockCount;
+    }
+
+    public Block newBlock() {
+        Block block = new Block(blockCount++);
+        blocks.add(block);
+        return block;
+    }
+
+    // Drop unreachable blocks, link predecessors and successors, and put the blocks in reverse postorder.
+    public void computeEdges() {
+        for (Block block : blocks) {
+            block.preds.clear();
+            block.succs.clear();
+        }
+        List<Block> postorder = new ArrayList<>();
+        boolean[] visited = new boolean[blockCount];
+        // iterative DFS: the stack holds each block with the index of its next successor to visit
+        List<Block> stack = new ArrayList<>();
+        List<Integer> next = new ArrayList<>();
+        visited[entry.id] = true;
+        stack.add(entry);
+        next.add(0);
+        while (!stack.isEmpty()) {
+            int top = stack.size() - 1;
+            Block block = stack.get(top);
+            Block[] succs = successors(block);
+            int i = next.get(top);
+            if (i < succs.length) {
+                next.set(top, i + 1);
+                Block succ = succs[i];
+                if (!visited[succ.id]) {
+                    visited[succ.id] = true;
+                    stack.add(succ);
+                    next.add(0);
+                }
+            } else {
+                stack.remove(top);
+                next.remove(top);
+                postorder.add(block);
+            }
+        }
+
+        blocks.clear();
+        for (int i = postorder.size() - 1; i >= 0; i--) blocks.add(postorder.get(i));
+        for (Block block : blocks) {
+            for (Block succ : successors(block)) {
+                block.succs.add(succ);
+                succ.preds.add(block);
+            }
+        }
+    }
+
+    private static Block[] successors(Block block) {
+        Instr last = block.terminator();
+        if (last == null || last.op == Instr.RET) return new Block[0];
+        if (last.op == Instr.JUMP) return new Block[] { last.target };
+        if (last.target == last.otherwise) return new Block[] { last.target };
+        return new Block[] { last.target, last.otherwise };
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("function ").append(name).append(" (").append(regCount).append(" registers, frame ")
+          .append(frameSize).append(")\n");
+        for (Block block : blocks) {
+            sb.append("B").append(block.id).append(':');
+            if (!block.preds.isEmpty()) {
+                sb.append("  ; preds");
+                for (Block pred : block.preds) sb.append(" B").append(pred.id);
+            }
+            sb.append('\n');
+            for (Instr instr : block.instrs) sb.append("    ").append(instr).append('\n');
+        }
+        return sb.toString();
+    }
+}
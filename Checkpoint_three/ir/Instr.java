@@ -0,0 +1,202 @@
+package ir;
+
+import java.util.function.IntUnaryOperator;
+
+/*
+  One three-address instruction. Operands and results are virtual registers,
+  numbered from 0 in their Function; -1 means the slot is unused. Scalar
+  locals and parameters live in virtual registers too, so before any pass
+  runs a register can be assigned more than once. Memory is only touched by
+  the load/store opcodes: globals through GP, the frame through FP, and
+  array elements through an address held in a register.
+
+  The last instruction of every Block is a JUMP, BR or RET. In SSA form
+  (see SSA) a Block may also start with PHIs, whose args[i] is the value
+  coming in from sources[i]; -1 there means no value reaches along that
+  edge.
+*/
+public final class Instr {
+
+    public static final int CONST = 0;   // dst = imm
+    public static final int COPY  = 1;   // dst = a
+    public static final int ADD   = 2;   // dst = a + b
+    public static final int SUB   = 3;   // dst = a - b
+    public static final int MUL   = 4;   // dst = a * b
+    public static final int DIV   = 5;   // dst = a / b
+    public static final int NEG   = 6;   // dst = -a
+    public static final int EQ    = 7;   // dst = a == b ? 1 : 0, likewise up to GE
+    public static final int NE    = 8;
+    public static final int LT    = 9;
+    public static final int LE    = 10;
+    public static final int GT    = 11;
+    public static final int GE    = 12;
+    public static final int LDG   = 13;  // dst = mem[GP + imm]
+    public static final int STG   = 14;  // mem[GP + imm] = a
+    public static final int LDF   = 15;  // dst = mem[FP + imm]
+    public static final int ADDRG = 16;  // dst = GP + imm
+    public static final int ADDRF = 17;  // dst = FP + imm
+    public static final int LDX   = 18;  // dst = mem[a]
+    public static final int STX   = 19;  // mem[b] = a
+    public static final int CHECK = 20;  // halt if a < 0 (array index)
+    public static final int IN    = 21;  // dst = input()
+    public static final int OUT   = 22;  // output(a)
+    public static final int CALL  = 23;  // dst = callee(args), dst may be -1
+    public static final int JUMP  = 24;  // goto target
+    public static final int BR    = 25;  // if (a imm b) goto target else otherwise; b == -1 compares with 0
+    public static final int RET   = 26;  // return a, a may be -1
+    public static final int PHI   = 27;  // dst = args[i] when control came from sources[i]
+
+    public static final String[] NAMES = {
+        "const", "copy", "add", "sub", "mul", "div", "neg",
+        "eq", "ne", "lt", "le", "gt", "ge",
+        "ldg", "stg", "ldf", "addrg", "addrf", "ldx", "stx", "check",
+        "in", "out", "call", "jump", "br", "ret", "phi"
+    };
+
+    public int op;
+    public int dst = -1;
+    public int a = -1;
+    public int b = -1;
+    public int imm;
+    public int[] args;
+    public Function callee;
+    public Block target;
+    public Block otherwise;
+    public Block[] sources;
+
+    public Instr(int op) {
+        this.op = op;
+    }
+
+    public static Instr unary(int op, int dst, int a) {
+        Instr instr = new Instr(op);
+        instr.dst = dst;
+        instr.a = a;
+        return instr;
+    }
+
+    public static Instr binary(int op, int dst, int a, int b) {
+        Instr instr = unary(op, dst, a);
+        instr.b = b;
+        return instr;
+    }
+
+    // An instruction with an immediate operand and at most one register operand.
+    public static Instr immediate(int op, int dst, int a, int imm) {
+        Instr instr = unary(op, dst, a);
+        instr.imm = imm;
+        return instr;
+    }
+
+    public static Instr jump(Block target) {
+        Instr instr = new Instr(JUMP);
+        instr.target = target;
+        return instr;
+    }
+
+    // Branch on 'a relation b' (relation is EQ..GE); b == -1 compares a with zero.
+    public static Instr branch(int relation, int a, int b, Block target, Block otherwise) {
+        Instr instr = binary(BR, -1, a, b);
+        instr.imm = relation;
+        instr.target = target;
+        instr.otherwise = otherwise;
+        return instr;
+    }
+
+    public static Instr phi(int dst, Block[] sources) {
+        Instr instr = unary(PHI, dst, -1);
+        instr.sources = sources;
+        instr.args = new int[sources.length];
+        return instr;
+    }
+
+    public boolean isTerminator() {
+        return op == JUMP || op == BR || op == RET;
+    }
+
+    // True if dropping the instruction loses nothing but its result. DIV is left out: it halts on zero.
+    public boolean isPure() {
+        switch (op) {
+            case CONST: case COPY: case ADD: case SUB: case MUL: case NEG:
+            case EQ: case NE: case LT: case LE: case GT: case GE:
+            case LDG: case LDF: case ADDRG: case ADDRF: case LDX: case PHI:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // Registers this instruction reads: a, b, then call or phi arguments (-1 for an undefined phi argument).
+    public int[] uses() {
+        int n = (a >= 0 ? 1 : 0) + (b >= 0 ? 1 : 0);
+        int[] uses = new int[n + (args != null ? args.length : 0)];
+        int i = 0;
+        if (a >= 0) uses[i++] = a;
+        if (b >= 0) uses[i++] = b;
+        if (args != null) System.arraycopy(args, 0, uses, i, args.length);
+        return uses;
+    }
+
+    // Replace every register this instruction reads by map(register).
+    public void replaceUses(IntUnaryOperator map) {
+        if (a >= 0) a = map.applyAsInt(a);
+        if (b >= 0) b = map.applyAsInt(b);
+        if (args != null) {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i] >= 0) args[i] = map.applyAsInt(args[i]);
+            }
+        }
+    }
+
+    public static boolean isRelation(int op) {
+        return op >= EQ && op <= GE;
+    }
+
+    // The relation that holds exactly when 'relation' does not.
+    public static int negate(int relation) {
+        switch (relation) {
+            case EQ: return NE;
+            case NE: return EQ;
+            case LT: return GE;
+            case GE: return LT;
+            case GT: return LE;
+            default: return GT;
+        }
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        if (dst >= 0) sb.append('v').append(dst).append(" = ");
+        sb.append(NAMES[op]);
+        switch (op) {
+            case CONST: case LDG: case LDF: case ADDRG: case ADDRF:
+                sb.append(' ').append(imm);
+                break;
+            case STG:
+                sb.append(" v").append(a).append(", ").append(imm);
+                break;
+            case CALL:
+                sb.append(' ').append(callee.name).append('(');
+                for (int i = 0; i < args.length; i++) sb.append(i > 0 ? ", v" : "v").append(args[i]);
+                sb.append(')');
+                break;
+            case JUMP:
+                sb.append(" B").append(target.id);
+                break;
+            case PHI:
+                for (int i = 0; i < args.length; i++) {
+                    sb.append(i > 0 ? ", B" : " B").append(sources[i].id).append(": ");
+                    sb.append(args[i] >= 0 ? "v" + args[i] : "?");
+                }
+                break;
+            case BR:
+                sb.append(' ').append(NAMES[imm]).append(" v").append(a).append(", ").append(b >= 0 ? "v" + b : "0");
+                sb.append(" -> B").append(target.id).append(", B").append(otherwise.id);
+                break;
+            default:
+                if (a >= 0) sb.append(" v").append(a);
+                if (b >= 0) sb.append(", v").append(b);
+        }
+        return sb.toString();
+    }
+}
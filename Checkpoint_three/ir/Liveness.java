@@ -0,0 +1,75 @@
+package ir;
+
+import java.util.BitSet;
+import java.util.List;
+
+/*
+  Live registers at the start and end of every block, by the usual backward
+  dataflow to a fixed point. A PHI reads its argument at the end of the
+  matching source block and defines its result at the start of its own
+  block, so the analysis is right both before and in SSA form.
+*/
+public final class Liveness {
+
+    private final BitSet[] liveIn;
+    private final BitSet[] liveOut;
+
+    public Liveness(Function function) {
+        int n = function.blockCount();
+        liveIn = new BitSet[n];
+        liveOut = new BitSet[n];
+        BitSet[] uses = new BitSet[n];
+        BitSet[] defs = new BitSet[n];
+        List<Block> blocks = function.blocks;
+        for (Block block : blocks) {
+            BitSet use = new BitSet();
+            BitSet def = new BitSet();
+            for (Instr instr : block.instrs) {
+                if (instr.op != Instr.PHI) {
+                    for (int reg : instr.uses()) {
+                        if (!def.get(reg)) use.set(reg);
+                    }
+                }
+                if (instr.dst >= 0) def.set(instr.dst);
+            }
+            uses[block.id] = use;
+            defs[block.id] = def;
+            liveIn[block.id] = new BitSet();
+            liveOut[block.id] = new BitSet();
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = blocks.size() - 1; i >= 0; i--) {
+                Block block = blocks.get(i);
+                BitSet out = new BitSet();
+                for (Block succ : block.succs) {
+                    out.or(liveIn[succ.id]);
+                    for (Instr instr : succ.instrs) {
+                        if (instr.op != Instr.PHI) break;
+                        for (int k = 0; k < instr.sources.length; k++) {
+                            if (instr.sources[k] == block && instr.args[k] >= 0) out.set(instr.args[k]);
+                        }
+                    }
+                }
+                BitSet in = (BitSet) out.clone();
+                in.andNot(defs[block.id]);
+                in.or(uses[block.id]);
+                if (!in.equals(liveIn[block.id]) || !out.equals(liveOut[block.id])) {
+                    liveIn[block.id] = in;
+                    liveOut[block.id] = out;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    public BitSet liveIn(Block block) {
+        return liveIn[block.id];
+    }
+
+    public BitSet liveOut(Block block) {
+        return liveOut[block.id];
+    }
+}
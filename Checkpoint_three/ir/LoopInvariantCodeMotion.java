@@ -0,0 +1,202 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+
+/*
+  Loop-invariant code motion on a Function in SSA form. A loop is the
+  natural loop of a header and its back edges (edges into a block from a
+  block it dominates). Each loop gets a preheader, a block that every
+  entry into the loop goes through just before the header, and the
+  instructions whose operands are all defined outside the loop move there,
+  ahead of the loop test. Inner loops go first, so code can move out of
+  several loops one step at a time.
+
+  Only instructions that cannot fail are moved, since a while loop may run
+  zero times: arithmetic other than DIV, relations, constants, addresses,
+  parameter loads, and loads of global scalars when the loop stores to none
+  and calls nothing. Array loads stay in the loop behind their index check.
+*/
+public class LoopInvariantCodeMotion {
+
+    private record Loop(Block header, BitSet body) {}
+
+    private Function function;
+    private Block[] defBlock;
+
+    // Returns the number of instructions moved.
+    public int run(Function function) {
+        this.function = function;
+        List<Loop> loops = findLoops();
+        if (loops.isEmpty()) return 0;
+        loops.sort(Comparator.comparingInt(loop -> loop.body().cardinality()));
+
+        defBlock = new Block[function.regCount];
+        for (Block block : function.blocks) {
+            for (Instr instr : block.instrs) {
+                if (instr.dst >= 0) defBlock[instr.dst] = block;
+            }
+        }
+        int moved = 0;
+        for (int i = 0; i < loops.size(); i++) {
+            Loop loop = loops.get(i);
+            Block preheader = preheader(loop);
+            // the preheader of an inner loop is part of every loop around it
+            for (int j = i + 1; j < loops.size(); j++) {
+                BitSet outer = loops.get(j).body();
+                if (outer.get(loop.header().id)) outer.set(preheader.id);
+            }
+            moved += hoist(loop, preheader);
+        }
+        function.computeEdges();
+        return moved;
+    }
+
+    private List<Loop> findLoops() {
+        Dominators dominators = new Dominators(function);
+        List<Loop> loops = new ArrayList<>();
+        for (Block header : function.blocks) {
+            // nothing can come before the entry, so it gets no preheader
+            if (header == function.entry) continue;
+            BitSet body = null;
+            List<Block> work = new ArrayList<>();
+            for (Block pred : header.preds) {
+                if (!dominators.dominates(header, pred)) continue;
+                if (body == null) {
+                    body = new BitSet();
+                    body.set(header.id);
+                }
+                if (!body.get(pred.id)) {
+                    body.set(pred.id);
+                    work.add(pred);
+                }
+            }
+            if (body == null) continue;
+            while (!work.isEmpty()) {
+                Block block = work.remove(work.size() - 1);
+                for (Block pred : block.preds) {
+                    if (!body.get(pred.id)) {
+                        body.set(pred.id);
+                        work.add(pred);
+                    }
+                }
+            }
+            loops.add(new Loop(header, body));
+        }
+        return loops;
+    }
+
+    /*
+      The block all entries into the loop come through. The one predecessor
+      from outside is used if it only jumps to the header; otherwise a new
+      block is put on those edges, and the header's PHIs take their values
+      from outside through it (merged by a PHI of its own if they differ).
+    */
+    private Block preheader(Loop loop) {
+        Block header = loop.header();
+        List<Block> outside = new ArrayList<>();
+        for (Block pred : header.preds) {
+            if (!loop.body().get(pred.id)) outside.add(pred);
+        }
+        if (outside.size() == 1 && outside.get(0).terminator().op == Instr.JUMP) return outside.get(0);
+
+        Block preheader = function.newBlock();
+        // keep the blocks in an order where definitions come before their uses
+        function.blocks.remove(preheader);
+        function.blocks.add(function.blocks.indexOf(header), preheader);
+        for (Block pred : outside) {
+            Instr last = pred.terminator();
+            if (last.target == header) last.target = preheader;
+            if (last.otherwise == header) last.otherwise = preheader;
+            pred.succs.set(pred.succs.indexOf(header), preheader);
+            preheader.preds.add(pred);
+        }
+        for (Instr phi : header.instrs) {
+            if (phi.op != Instr.PHI) break;
+            List<Integer> args = new ArrayList<>();
+            List<Block> sources = new ArrayList<>();
+            int outsideValue = -2;
+            boolean same = true;
+            for (int k = 0; k < phi.sources.length; k++) {
+                if (loop.body().get(phi.sources[k].id)) {
+                    args.add(phi.args[k]);
+                    sources.add(phi.sources[k]);
+                } else {
+                    if (outsideValue != -2 && outsideValue != phi.args[k]) same = false;
+                    outsideValue = phi.args[k];
+                }
+            }
+            if (!same) {
+                Instr merge = Instr.phi(function.newReg(), outside.toArray(new Block[0]));
+                for (int k = 0; k < phi.sources.length; k++) {
+                    int at = outside.indexOf(phi.sources[k]);
+                    if (at >= 0) merge.args[at] = phi.args[k];
+                }
+                preheader.instrs.add(merge);
+                if (defBlock.length <= merge.dst) defBlock = Arrays.copyOf(defBlock, function.regCount);
+                defBlock[merge.dst] = preheader;
+                outsideValue = merge.dst;
+            }
+            args.add(outsideValue);
+            sources.add(preheader);
+            phi.args = args.stream().mapToInt(Integer::intValue).toArray();
+            phi.sources = sources.toArray(new Block[0]);
+        }
+        preheader.instrs.add(Instr.jump(header));
+        preheader.succs.add(header);
+        header.preds.removeAll(outside);
+        header.preds.add(preheader);
+        return preheader;
+    }
+
+    private int hoist(Loop loop, Block preheader) {
+        BitSet body = loop.body();
+        boolean storesScalars = false;
+        for (Block block : function.blocks) {
+            if (!body.get(block.id)) continue;
+            for (Instr instr : block.instrs) {
+                if (instr.op == Instr.STG || instr.op == Instr.CALL) storesScalars = true;
+            }
+        }
+
+        int moved = 0;
+        List<Instr> target = preheader.instrs;
+        for (Block block : function.blocks) {
+            if (!body.get(block.id)) continue;
+            List<Instr> instrs = block.instrs;
+            for (int i = 0; i < instrs.size(); i++) {
+                Instr instr = instrs.get(i);
+                if (!canMove(instr, storesScalars) || !isInvariant(instr, body)) continue;
+                instrs.remove(i--);
+                target.add(target.size() - 1, instr);
+                defBlock[instr.dst] = preheader;
+                moved++;
+            }
+        }
+        return moved;
+    }
+
+    private static boolean canMove(Instr instr, boolean storesScalars) {
+        switch (instr.op) {
+            case Instr.CONST: case Instr.COPY: case Instr.ADD: case Instr.SUB: case Instr.MUL: case Instr.NEG:
+            case Instr.EQ: case Instr.NE: case Instr.LT: case Instr.LE: case Instr.GT: case Instr.GE:
+            case Instr.LDF: case Instr.ADDRG: case Instr.ADDRF:
+                return true;
+            case Instr.LDG:
+                return !storesScalars;
+            default:
+                return false;
+        }
+    }
+
+    private boolean isInvariant(Instr instr, BitSet body) {
+        for (int reg : instr.uses()) {
+            Block def = defBlock[reg];
+            if (def != null && body.get(def.id)) return false;
+        }
+        return true;
+    }
+}
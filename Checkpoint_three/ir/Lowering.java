@@ -0,0 +1,367 @@
+package ir;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import absyn.*;
+
+/*
+  Lowers an analyzed syntax tree to IR. Every function definition becomes a
+  Function whose scalar parameters and locals are virtual registers; arrays
+  and globals stay in memory, globals and parameters at the offsets the
+  analyzer gave them. Calls to input() and output() become IN and OUT
+  instructions.
+
+  Conditions of if/while and the operands of &&, || and ~ are lowered to
+  branches, so a test like "a < b && c" is two BRs and no 0/1 values. A
+  relation or logical operator used as a value is computed into a register.
+
+  The tree must have passed semantic analysis without errors: the lowering
+  relies on the declarations the analyzer attached to variables and calls.
+*/
+public class Lowering {
+
+    private final Program program = new Program();
+    // function definitions, and their prototypes, by declaration
+    private final Map<FunctionDec, Function> functions = new IdentityHashMap<>();
+
+    // state of the function being lowered
+    private Function function;
+    private Block current;
+    private final Map<VarDec, Integer> registers = new IdentityHashMap<>();
+    // frame offsets of local arrays, and the next free offset in the frame
+    private final Map<VarDec, Integer> arrayOffsets = new IdentityHashMap<>();
+    private int frameTop;
+
+    public Program lower(DecList tree) {
+        for (DecList list = tree; list != null; list = list.tail) {
+            if (list.head instanceof VarDec dec) {
+                program.globalSize = Math.max(program.globalSize, -dec.offset + slots(dec));
+            } else if (list.head instanceof FunctionDec dec && dec.body instanceof CompoundExp) {
+                Function f = new Function(dec.func_name, dec);
+                functions.put(dec, f);
+                if (dec.prototype != null) functions.put(dec.prototype, f);
+                program.functions.add(f);
+                if (dec.func_name.equals("main")) program.main = f;
+            }
+        }
+        for (Function f : program.functions) lowerFunction(f);
+        return program;
+    }
+
+    // Frame or global slots a declaration takes (see SemanticAnalyzer.allocate).
+    private static int slots(VarDec dec) {
+        if (dec instanceof ArrayDec array && array.size > 0) return array.size + 1;
+        return 1;
+    }
+
+    private void lowerFunction(Function f) {
+        function = f;
+        registers.clear();
+        arrayOffsets.clear();
+        current = f.entry = f.newBlock();
+        frameTop = -2;
+
+        for (VarDecList list = f.dec.parameters; list != null; list = list.tail) {
+            if (list.head == null) continue;
+            VarDec param = list.head;
+            int reg = f.newReg();
+            registers.put(param, reg);
+            emit(Instr.immediate(Instr.LDF, reg, -1, param.offset));
+            frameTop = Math.min(frameTop, param.offset - 1);
+        }
+        f.frameSize = -frameTop;
+        statement(f.dec.body);
+        if (!current.isTerminated()) emit(Instr.unary(Instr.RET, -1, -1));
+        f.computeEdges();
+    }
+
+    private void emit(Instr instr) {
+        current.instrs.add(instr);
+    }
+
+    // End the current block with 'terminator' and continue in 'next'.
+    private void endBlock(Instr terminator, Block next) {
+        emit(terminator);
+        current = next;
+    }
+
+    private int newReg() {
+        return function.newReg();
+    }
+
+    private int constant(int value) {
+        int reg = newReg();
+        emit(Instr.immediate(Instr.CONST, reg, -1, value));
+        return reg;
+    }
+
+    /*
+      Scalar locals become registers. Local arrays get frame slots below the
+      parameters; the slots are given back at the end of the block, so
+      arrays in sibling blocks share them.
+    */
+    private void declare(VarDecList decs) {
+        for (VarDecList list = decs; list != null; list = list.tail) {
+            VarDec dec = list.head;
+            if (dec == null) continue;
+            if (dec instanceof ArrayDec) {
+                arrayOffsets.put(dec, frameTop);
+                frameTop -= slots(dec);
+                function.frameSize = Math.max(function.frameSize, -frameTop);
+            } else if (dec instanceof SimpleDec) {
+                // locals start at 0 so every register has a value before it is read
+                int reg = newReg();
+                registers.put(dec, reg);
+                emit(Instr.immediate(Instr.CONST, reg, -1, 0));
+            }
+        }
+    }
+
+    private void statements(ExpList list) {
+        for (; list != null; list = list.tail) {
+            if (list.head != null) statement(list.head);
+        }
+    }
+
+    private void statement(Exp exp) {
+        if (exp instanceof CompoundExp compound) {
+            int saved = frameTop;
+            declare(compound.decs);
+            statements(compound.exps);
+            frameTop = saved;
+        } else if (exp instanceof IfExp ifExp) {
+            Block then = function.newBlock();
+            Block end = function.newBlock();
+            Block otherwise = ifExp.elsepart != null ? function.newBlock() : end;
+            condition(ifExp.test, then, otherwise);
+            current = then;
+            statements(ifExp.thenpart);
+            endBlock(Instr.jump(end), otherwise);
+            if (ifExp.elsepart != null) {
+                statements(ifExp.elsepart);
+                endBlock(Instr.jump(end), end);
+            }
+        } else if (exp instanceof WhileExp whileExp) {
+            Block test = function.newBlock();
+            Block body = function.newBlock();
+            Block end = function.newBlock();
+            endBlock(Instr.jump(test), test);
+            condition(whileExp.test, body, end);
+            current = body;
+            statement(whileExp.body);
+            endBlock(Instr.jump(test), end);
+        } else if (exp instanceof ReturnExp returnExp) {
+            int value = returnExp.exp != null && !(returnExp.exp instanceof NilExp) ? value(returnExp.exp) : -1;
+            // anything after the return lands in a block nothing jumps to
+            endBlock(Instr.unary(Instr.RET, -1, value), function.newBlock());
+        } else if (exp instanceof NilExp || exp == null) {
+            // empty statement
+        } else {
+            value(exp);
+        }
+    }
+
+    /*
+      Branch to 'target' if 'exp' is true (non-zero) and to 'otherwise' if
+      not. The current block ends here; the caller continues in one of the
+      two targets.
+    */
+    private void condition(Exp exp, Block target, Block otherwise) {
+        if (exp instanceof BoolExp bool) {
+            endBlock(Instr.jump(bool.value ? target : otherwise), null);
+            return;
+        }
+        if (exp instanceof OpExp node) {
+            switch (node.op) {
+                case OpExp.AND: {
+                    Block right = function.newBlock();
+                    condition(node.left, right, otherwise);
+                    current = right;
+                    condition(node.right, target, otherwise);
+                    return;
+                }
+                case OpExp.OR: {
+                    Block right = function.newBlock();
+                    condition(node.left, target, right);
+                    current = right;
+                    condition(node.right, target, otherwise);
+                    return;
+                }
+                case OpExp.NOT:
+                    condition(node.right, otherwise, target);
+                    return;
+                default:
+                    int relation = relation(node.op);
+                    if (relation >= 0) {
+                        int left = value(node.left);
+                        int right = value(node.right);
+                        endBlock(Instr.branch(relation, left, right, target, otherwise), null);
+                        return;
+                    }
+            }
+        }
+        endBlock(Instr.branch(Instr.NE, value(exp), -1, target, otherwise), null);
+    }
+
+    private static int relation(int op) {
+        switch (op) {
+            case OpExp.EQ:  return Instr.EQ;
+            case OpExp.NEQ: return Instr.NE;
+            case OpExp.LT:  return Instr.LT;
+            case OpExp.LTE: return Instr.LE;
+            case OpExp.GT:  return Instr.GT;
+            case OpExp.GTE: return Instr.GE;
+            default:        return -1;
+        }
+    }
+
+    private static int arithmetic(int op) {
+        switch (op) {
+            case OpExp.PLUS:  return Instr.ADD;
+            case OpExp.MINUS: return Instr.SUB;
+            case OpExp.TIMES: return Instr.MUL;
+            case OpExp.OVER:
+            case OpExp.DIVIDE: return Instr.DIV;
+            default:          return -1;
+        }
+    }
+
+    // Lower 'exp' for its value and return the register holding it (-1 for a void call).
+    private int value(Exp exp) {
+        if (exp instanceof IntExp intExp) return constant(intExp.value);
+        if (exp instanceof BoolExp bool) return constant(bool.value ? 1 : 0);
+        if (exp instanceof VarExp varExp) return load(varExp.variable);
+        if (exp instanceof AssignExp assign) return assign(assign);
+        if (exp instanceof CallExp call) return call(call);
+        if (exp instanceof OpExp node) {
+            int op = arithmetic(node.op);
+            if (op >= 0) {
+                int left = value(node.left);
+                int right = value(node.right);
+                int reg = newReg();
+                emit(Instr.binary(op, reg, left, right));
+                return reg;
+            }
+            op = relation(node.op);
+            if (op >= 0) {
+                int left = value(node.left);
+                int right = value(node.right);
+                int reg = newReg();
+                emit(Instr.binary(op, reg, left, right));
+                return reg;
+            }
+            if (node.op == OpExp.UMINUS) {
+                int operand = value(node.right);
+                int reg = newReg();
+                emit(Instr.unary(Instr.NEG, reg, operand));
+                return reg;
+            }
+            // &&, || and ~ as values: branch, then set the result to 1 or 0
+            int reg = newReg();
+            Block isTrue = function.newBlock();
+            Block isFalse = function.newBlock();
+            Block end = function.newBlock();
+            condition(node, isTrue, isFalse);
+            current = isTrue;
+            emit(Instr.immediate(Instr.CONST, reg, -1, 1));
+            endBlock(Instr.jump(end), isFalse);
+            emit(Instr.immediate(Instr.CONST, reg, -1, 0));
+            endBlock(Instr.jump(end), end);
+            return reg;
+        }
+        if (exp instanceof CompoundExp || exp instanceof IfExp || exp instanceof WhileExp
+                || exp instanceof ReturnExp || exp instanceof NilExp) {
+            // a statement has no value
+            statement(exp);
+            return -1;
+        }
+        throw new IllegalStateException("cannot lower " + exp.getClass().getSimpleName());
+    }
+
+    private int load(Var var) {
+        VarDec dec = var.vardec;
+        if (var instanceof IndexVar indexVar) {
+            int address = elementAddress(indexVar);
+            int reg = newReg();
+            emit(Instr.unary(Instr.LDX, reg, address));
+            return reg;
+        }
+        // an array as a whole (an argument) is the address of its element 0
+        if (dec instanceof ArrayDec) return arrayBase(dec);
+        Integer reg = registers.get(dec);
+        if (reg != null) return reg;
+        int result = newReg();
+        emit(Instr.immediate(Instr.LDG, result, -1, dec.offset));
+        return result;
+    }
+
+    // Address of an array's element 0; elements go down from there.
+    private int arrayBase(VarDec dec) {
+        Integer param = registers.get(dec);
+        if (param != null) return param;
+        int reg = newReg();
+        Integer local = arrayOffsets.get(dec);
+        emit(local != null ? Instr.immediate(Instr.ADDRF, reg, -1, local) : Instr.immediate(Instr.ADDRG, reg, -1, dec.offset));
+        return reg;
+    }
+
+    private int elementAddress(IndexVar var) {
+        int base = arrayBase(var.vardec);
+        int index = value(var.index);
+        emit(Instr.unary(Instr.CHECK, -1, index));
+        int address = newReg();
+        emit(Instr.binary(Instr.SUB, address, base, index));
+        return address;
+    }
+
+    private int assign(AssignExp assign) {
+        Var var = assign.lhs.variable;
+        if (var instanceof IndexVar indexVar) {
+            int address = elementAddress(indexVar);
+            int value = value(assign.rhs);
+            emit(Instr.binary(Instr.STX, -1, value, address));
+            return value;
+        }
+        int value = value(assign.rhs);
+        Integer reg = registers.get(var.vardec);
+        if (reg != null) {
+            emit(Instr.unary(Instr.COPY, reg, value));
+            return reg;
+        }
+        emit(Instr.immediate(Instr.STG, -1, value, var.vardec.offset));
+        return value;
+    }
+
+    private int call(CallExp call) {
+        int[] args = new int[length(call.args)];
+        int i = 0;
+        for (ExpList list = call.args; list != null; list = list.tail) {
+            if (list.head != null) args[i++] = value(list.head);
+        }
+        if (call.nameId == NameTable.INPUT) {
+            int reg = newReg();
+            emit(Instr.unary(Instr.IN, reg, -1));
+            return reg;
+        }
+        if (call.nameId == NameTable.OUTPUT) {
+            emit(Instr.unary(Instr.OUT, -1, args[0]));
+            return -1;
+        }
+        Function callee = functions.get(call.funcDef);
+        if (callee == null) throw new IllegalStateException("no definition for function " + call.func);
+        Instr instr = new Instr(Instr.CALL);
+        instr.callee = callee;
+        instr.args = args;
+        if (callee.dec.return_type.type != NameTy.VOID) instr.dst = newReg();
+        emit(instr);
+        return instr.dst;
+    }
+
+    private static int length(ExpList list) {
+        int n = 0;
+        for (; list != null; list = list.tail) {
+            if (list.head != null) n++;
+        }
+        return n;
+    }
+}
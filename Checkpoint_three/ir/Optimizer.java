@@ -0,0 +1,31 @@
+package ir;
+
+import trace.Trace;
+
+/*
+  The IR passes run under -ir -O, one function at a time: into SSA, constant
+  propagation, clean-up, loop-invariant code motion, value numbering (which
+  also merges what several loops hoisted into one preheader), clean-up
+  again, and back out of SSA for the backend. The IR after the passes is
+  logged at CODEGEN DEBUG with the counts of what changed.
+*/
+public class Optimizer {
+
+    public void optimize(Program program) {
+        for (Function function : program.functions) optimize(function);
+    }
+
+    private void optimize(Function function) {
+        SSA.build(function);
+        int folded = new ConstantPropagation().run(function);
+        int removed = new Simplify().run(function);
+        int hoisted = new LoopInvariantCodeMotion().run(function);
+        int reused = new ValueNumbering().run(function);
+        removed += new Simplify().run(function);
+        if (Trace.on(Trace.CODEGEN, Trace.DEBUG)) {
+            Trace.log(Trace.CODEGEN, "[SSA] " + folded + " folded, " + hoisted + " hoisted, " + reused + " reused, "
+                      + removed + " removed\n" + function);
+        }
+        SSA.destroy(function);
+    }
+}
@@ -0,0 +1,18 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// The IR of a whole source file: its function definitions and the size of its globals.
+public final class Program {
+    public final List<Function> functions = new ArrayList<>();
+    public Function main;
+    public int globalSize = 0;
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("globals: ").append(globalSize).append(" slots\n");
+        for (Function function : functions) sb.append('\n').append(function);
+        return sb.toString();
+    }
+}
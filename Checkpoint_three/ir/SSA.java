@@ -0,0 +1,200 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+  Conversion of a Function into and out of static single assignment form.
+
+  build() places PHIs at the iterated dominance frontier of each register's
+  definitions, but only where the register is live (pruned SSA), then
+  renames along the dominator tree so every register has one definition.
+  The first definition of a register keeps its number; later ones get new
+  registers.
+
+  destroy() turns each PHI into copies at the end of its source blocks.
+  Where that is not safe (see isDirect) the sources set a fresh register
+  instead and the PHI becomes a copy of it: the fresh register is only read
+  at the top of the PHI's block, so setting it on an edge that leads
+  elsewhere is harmless, and PHIs of one block cannot overwrite each
+  other's inputs.
+*/
+public final class SSA {
+
+    private SSA() {}
+
+    public static void build(Function function) {
+        Dominators dominators = new Dominators(function);
+        Liveness liveness = new Liveness(function);
+        int vars = function.regCount;
+        int blocks = function.blockCount();
+
+        List<List<Block>> defSites = new ArrayList<>(vars);
+        for (int v = 0; v < vars; v++) defSites.add(new ArrayList<>());
+        for (Block block : function.blocks) {
+            for (Instr instr : block.instrs) {
+                if (instr.dst < 0) continue;
+                List<Block> sites = defSites.get(instr.dst);
+                if (sites.isEmpty() || sites.get(sites.size() - 1) != block) sites.add(block);
+            }
+        }
+
+        // the variable each PHI stands for; stamps are v + 1 so the arrays need no clearing
+        Map<Instr, Integer> phiVars = new IdentityHashMap<>();
+        int[] placed = new int[blocks];
+        int[] queued = new int[blocks];
+        for (int v = 0; v < vars; v++) {
+            List<Block> work = new ArrayList<>(defSites.get(v));
+            for (Block block : work) queued[block.id] = v + 1;
+            while (!work.isEmpty()) {
+                Block block = work.remove(work.size() - 1);
+                for (Block join : dominators.frontier(block)) {
+                    if (placed[join.id] == v + 1 || !liveness.liveIn(join).get(v)) continue;
+                    placed[join.id] = v + 1;
+                    Instr phi = Instr.phi(v, join.preds.toArray(new Block[0]));
+                    join.instrs.add(0, phi);
+                    phiVars.put(phi, v);
+                    if (queued[join.id] != v + 1) {
+                        queued[join.id] = v + 1;
+                        work.add(join);
+                    }
+                }
+            }
+        }
+
+        new Renamer(function, vars, phiVars).run(dominators);
+    }
+
+    private static final class Renamer {
+        private final Function function;
+        private final Map<Instr, Integer> phiVars;
+        // current name of each original register, as a stack per register
+        private final int[][] stacks;
+        private final int[] depth;
+        private final boolean[] named;
+
+        Renamer(Function function, int vars, Map<Instr, Integer> phiVars) {
+            this.function = function;
+            this.phiVars = phiVars;
+            stacks = new int[vars][4];
+            depth = new int[vars];
+            named = new boolean[vars];
+        }
+
+        private int current(int v) {
+            if (depth[v] == 0) throw new IllegalStateException("v" + v + " is read before it is set in " + function.name);
+            return stacks[v][depth[v] - 1];
+        }
+
+        private void push(int v, int name) {
+            if (depth[v] == stacks[v].length) stacks[v] = Arrays.copyOf(stacks[v], depth[v] * 2);
+            stacks[v][depth[v]++] = name;
+        }
+
+        private int fresh(int v) {
+            if (named[v]) return function.newReg();
+            named[v] = true;
+            return v;
+        }
+
+        // Walk the dominator tree without recursion: a block is visited on the way down and popped on the way up.
+        void run(Dominators dominators) {
+            List<Block> stack = new ArrayList<>();
+            List<int[]> pushed = new ArrayList<>();
+            stack.add(function.entry);
+            pushed.add(null);
+            while (!stack.isEmpty()) {
+                int top = stack.size() - 1;
+                Block block = stack.get(top);
+                if (pushed.get(top) != null) {
+                    for (int v : pushed.get(top)) depth[v]--;
+                    stack.remove(top);
+                    pushed.remove(top);
+                    continue;
+                }
+                pushed.set(top, rename(block));
+                for (Block child : dominators.children(block)) {
+                    stack.add(child);
+                    pushed.add(null);
+                }
+            }
+        }
+
+        // Rename the block's definitions and uses and fill in its successors' PHIs; returns the variables pushed.
+        private int[] rename(Block block) {
+            int[] pushed = new int[block.instrs.size()];
+            int count = 0;
+            for (Instr instr : block.instrs) {
+                if (instr.op != Instr.PHI) instr.replaceUses(this::current);
+                if (instr.dst < 0) continue;
+                int v = instr.op == Instr.PHI ? phiVars.get(instr) : instr.dst;
+                instr.dst = fresh(v);
+                push(v, instr.dst);
+                pushed[count++] = v;
+            }
+            for (Block succ : block.succs) {
+                for (Instr phi : succ.instrs) {
+                    if (phi.op != Instr.PHI) break;
+                    int v = phiVars.get(phi);
+                    for (int k = 0; k < phi.sources.length; k++) {
+                        if (phi.sources[k] == block) phi.args[k] = depth[v] > 0 ? current(v) : -1;
+                    }
+                }
+            }
+            return Arrays.copyOf(pushed, count);
+        }
+    }
+
+    public static void destroy(Function function) {
+        for (Block block : function.blocks) {
+            int phis = 0;
+            while (phis < block.instrs.size() && block.instrs.get(phis).op == Instr.PHI) phis++;
+            if (phis == 0) continue;
+            List<Instr> front = new ArrayList<>();
+            List<Instr> direct = new ArrayList<>();
+            for (int i = 0; i < phis; i++) {
+                Instr phi = block.instrs.get(i);
+                if (isDirect(block, phis, phi)) {
+                    direct.add(phi);
+                } else {
+                    int temp = function.newReg();
+                    for (int k = 0; k < phi.sources.length; k++) {
+                        if (phi.args[k] >= 0) insertCopy(phi.sources[k], temp, phi.args[k]);
+                    }
+                    front.add(Instr.unary(Instr.COPY, phi.dst, temp));
+                }
+            }
+            // a source block with direct copies only jumps here, so its copies into temporaries are all in by now
+            for (Instr phi : direct) {
+                for (int k = 0; k < phi.sources.length; k++) {
+                    if (phi.args[k] >= 0) insertCopy(phi.sources[k], phi.dst, phi.args[k]);
+                }
+            }
+            block.instrs.subList(0, phis).clear();
+            block.instrs.addAll(0, front);
+        }
+    }
+
+    /*
+      A PHI can be set straight from its arguments at the end of each source
+      block if every source only jumps here (so the copy runs on no other
+      edge) and no argument is the result of a PHI of the same block (which
+      the copies would otherwise read after it changed).
+    */
+    private static boolean isDirect(Block block, int phis, Instr phi) {
+        for (int k = 0; k < phi.sources.length; k++) {
+            if (phi.sources[k].terminator().op != Instr.JUMP) return false;
+            for (int i = 0; i < phis; i++) {
+                if (block.instrs.get(i).dst == phi.args[k]) return false;
+            }
+        }
+        return true;
+    }
+
+    private static void insertCopy(Block block, int to, int from) {
+        block.instrs.add(block.instrs.size() - 1, Instr.unary(Instr.COPY, to, from));
+    }
+}
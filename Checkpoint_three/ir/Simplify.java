@@ -0,0 +1,142 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/*
+  Clean-up for a Function in SSA form, run after the passes that fold or
+  move code:
+
+  - a block that jumps to a block with no other predecessor absorbs it,
+  - a PHI whose arguments are all the same register becomes a copy,
+  - copies are propagated into their uses and dropped,
+  - pure instructions whose result is never read are removed.
+*/
+public class Simplify {
+
+    // Returns the number of instructions removed.
+    public int run(Function function) {
+        int before = size(function);
+        mergeBlocks(function);
+        simplifyPhis(function);
+        propagateCopies(function);
+        removeDeadCode(function);
+        return before - size(function);
+    }
+
+    private static int size(Function function) {
+        int n = 0;
+        for (Block block : function.blocks) n += block.instrs.size();
+        return n;
+    }
+
+    private void mergeBlocks(Function function) {
+        boolean merged = false;
+        for (Block block : function.blocks) {
+            if (block.instrs.isEmpty()) continue;
+            while (true) {
+                Instr last = block.terminator();
+                if (last.op != Instr.JUMP) break;
+                Block next = last.target;
+                if (next == block || next == function.entry || next.preds.size() != 1) break;
+                block.instrs.remove(block.instrs.size() - 1);
+                for (Instr instr : next.instrs) {
+                    if (instr.op != Instr.PHI) {
+                        block.instrs.add(instr);
+                    } else if (instr.args[0] >= 0) {
+                        // the only predecessor is 'block', so the PHI has one argument
+                        block.instrs.add(Instr.unary(Instr.COPY, instr.dst, instr.args[0]));
+                    } else {
+                        block.instrs.add(Instr.immediate(Instr.CONST, instr.dst, -1, 0));
+                    }
+                }
+                next.instrs.clear();
+                block.succs.clear();
+                block.succs.addAll(next.succs);
+                for (Block succ : next.succs) {
+                    succ.preds.set(succ.preds.indexOf(next), block);
+                    for (Instr phi : succ.instrs) {
+                        if (phi.op != Instr.PHI) break;
+                        for (int k = 0; k < phi.sources.length; k++) {
+                            if (phi.sources[k] == next) phi.sources[k] = block;
+                        }
+                    }
+                }
+                merged = true;
+            }
+        }
+        if (merged) function.computeEdges();
+    }
+
+    private void simplifyPhis(Function function) {
+        for (Block block : function.blocks) {
+            for (int i = 0; i < block.instrs.size(); i++) {
+                Instr phi = block.instrs.get(i);
+                if (phi.op != Instr.PHI) break;
+                // a PHI that only merges one value (and maybe itself, round a loop) is a copy of it
+                int same = -1;
+                boolean unique = true;
+                for (int arg : phi.args) {
+                    if (arg == phi.dst || arg == same) continue;
+                    if (same >= 0 || arg < 0) unique = false;
+                    same = arg;
+                }
+                if (unique && same >= 0) block.instrs.set(i, Instr.unary(Instr.COPY, phi.dst, same));
+            }
+        }
+    }
+
+    private void propagateCopies(Function function) {
+        int[] alias = new int[function.regCount];
+        for (int r = 0; r < alias.length; r++) alias[r] = r;
+        boolean any = false;
+        for (Block block : function.blocks) {
+            for (Instr instr : block.instrs) {
+                if (instr.op == Instr.COPY) {
+                    alias[instr.dst] = instr.a;
+                    any = true;
+                }
+            }
+        }
+        if (!any) return;
+        // chains of copies end at a register that is not a copy; a copy in SSA cannot reach itself
+        for (int r = 0; r < alias.length; r++) {
+            int target = alias[r];
+            while (alias[target] != target) target = alias[target];
+            alias[r] = target;
+        }
+        for (Block block : function.blocks) {
+            List<Instr> kept = new ArrayList<>(block.instrs.size());
+            for (Instr instr : block.instrs) {
+                if (instr.op == Instr.COPY) continue;
+                instr.replaceUses(r -> alias[r]);
+                kept.add(instr);
+            }
+            block.instrs.clear();
+            block.instrs.addAll(kept);
+        }
+    }
+
+    // Mark from the instructions that must stay (impure ones and terminators) through the definitions they read.
+    private void removeDeadCode(Function function) {
+        Instr[] defs = new Instr[function.regCount];
+        Set<Instr> live = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<Instr> work = new ArrayList<>();
+        for (Block block : function.blocks) {
+            for (Instr instr : block.instrs) {
+                if (instr.dst >= 0) defs[instr.dst] = instr;
+                if (!instr.isPure() && live.add(instr)) work.add(instr);
+            }
+        }
+        while (!work.isEmpty()) {
+            Instr instr = work.remove(work.size() - 1);
+            for (int reg : instr.uses()) {
+                if (reg >= 0 && defs[reg] != null && live.add(defs[reg])) work.add(defs[reg]);
+            }
+        }
+        for (Block block : function.blocks) block.instrs.retainAll(live);
+    }
+}
@@ -0,0 +1,84 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/*
+  Frame slots for the virtual registers of a Function out of SSA form. Two
+  registers interfere if one is written while the other is live; registers
+  that do not interfere may share a slot. Slots are handed out greedily in
+  register order, and a register first tries the slot of a register it is
+  copied from or to, so such copies turn into nothing.
+
+  A copy does not make its source and result interfere: both hold the same
+  value at that point.
+*/
+public final class SlotAllocator {
+
+    // slot of each register, 0 up; -1 for a register no instruction mentions
+    public final int[] slots;
+    public final int slotCount;
+
+    public SlotAllocator(Function function) {
+        int n = function.regCount;
+        BitSet[] interference = new BitSet[n];
+        boolean[] seen = new boolean[n];
+        List<List<Integer>> partners = new ArrayList<>(n);
+        for (int r = 0; r < n; r++) {
+            interference[r] = new BitSet();
+            partners.add(new ArrayList<>(0));
+        }
+
+        Liveness liveness = new Liveness(function);
+        for (Block block : function.blocks) {
+            BitSet live = (BitSet) liveness.liveOut(block).clone();
+            for (int i = block.instrs.size() - 1; i >= 0; i--) {
+                Instr instr = block.instrs.get(i);
+                int dst = instr.dst;
+                if (dst >= 0) {
+                    seen[dst] = true;
+                    int source = instr.op == Instr.COPY ? instr.a : -1;
+                    for (int r = live.nextSetBit(0); r >= 0; r = live.nextSetBit(r + 1)) {
+                        if (r == dst || r == source) continue;
+                        interference[dst].set(r);
+                        interference[r].set(dst);
+                    }
+                    if (source >= 0) {
+                        partners.get(dst).add(source);
+                        partners.get(source).add(dst);
+                    }
+                    live.clear(dst);
+                }
+                for (int reg : instr.uses()) {
+                    seen[reg] = true;
+                    live.set(reg);
+                }
+            }
+        }
+
+        slots = new int[n];
+        int count = 0;
+        BitSet taken = new BitSet();
+        for (int r = 0; r < n; r++) {
+            slots[r] = -1;
+            if (!seen[r]) continue;
+            taken.clear();
+            BitSet neighbours = interference[r];
+            for (int other = neighbours.nextSetBit(0); other >= 0; other = neighbours.nextSetBit(other + 1)) {
+                if (slots[other] >= 0) taken.set(slots[other]);
+            }
+            int slot = -1;
+            for (int partner : partners.get(r)) {
+                if (slots[partner] >= 0 && !taken.get(slots[partner])) {
+                    slot = slots[partner];
+                    break;
+                }
+            }
+            if (slot < 0) slot = taken.nextClearBit(0);
+            slots[r] = slot;
+            count = Math.max(count, slot + 1);
+        }
+        slotCount = count;
+    }
+}
@@ -0,0 +1,209 @@
+package ir;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+  Dominator-based value numbering on a Function in SSA form. Blocks are
+  visited down the dominator tree with a scoped table from expressions to
+  the register that already holds them, so an expression is reused within
+  its block and in every block its block dominates. A recomputation is
+  dropped and its uses read the earlier register; in particular an array
+  element's address (and its index check) is computed once for
+  "a[i] = a[i] + 1".
+
+  Loads are numbered too, tagged with the state of memory they read. There
+  are two kinds of memory: global scalars (LDG/STG) and array elements
+  (LDX/STX), which never overlap. A store starts a new state for its kind
+  and records the stored value, so a later load of the same place reuses
+  it; a call starts new states for both. A block sees its immediate
+  dominator's final state only if no path between the two stores to that
+  kind of memory or calls a function.
+*/
+public class ValueNumbering {
+
+    private static final int SCALARS = 0;
+    private static final int ARRAYS = 1;
+
+    private record Key(int op, int a, int b, int imm, int memory) {}
+
+    private final Map<Key, Integer> table = new HashMap<>();
+    private int[] alias;
+    private int states = 0;
+    private int removed = 0;
+
+    // Returns the number of instructions removed.
+    public int run(Function function) {
+        Dominators dominators = new Dominators(function);
+        boolean[][] transparent = transparency(function, dominators);
+        alias = new int[function.regCount];
+        for (int r = 0; r < alias.length; r++) alias[r] = r;
+        int[][] exitState = new int[function.blockCount()][];
+
+        // iterative walk of the dominator tree; each visited block keeps the table entries it replaced
+        Deque<Block> stack = new ArrayDeque<>();
+        Deque<List<Object>> undo = new ArrayDeque<>();
+        stack.push(function.entry);
+        undo.push(new ArrayList<>(0));
+        List<Block> visited = new ArrayList<>();
+        while (!stack.isEmpty()) {
+            Block block = stack.peek();
+            if (!visited.isEmpty() && visited.get(visited.size() - 1) == block) {
+                restore(undo.pop());
+                stack.pop();
+                visited.remove(visited.size() - 1);
+                continue;
+            }
+            visited.add(block);
+            int[] memory = new int[2];
+            Block idom = dominators.idom(block);
+            for (int kind = SCALARS; kind <= ARRAYS; kind++) {
+                boolean same = block != function.entry && transparent[block.id][kind];
+                memory[kind] = same ? exitState[idom.id][kind] : states++;
+            }
+            List<Object> replaced = undo.peek();
+            number(block, memory, replaced);
+            exitState[block.id] = memory;
+            List<Block> children = dominators.children(block);
+            for (int i = children.size() - 1; i >= 0; i--) {
+                stack.push(children.get(i));
+                undo.push(new ArrayList<>());
+            }
+        }
+
+        // PHI arguments along back edges were read before their definitions were numbered
+        for (Block block : function.blocks) {
+            for (Instr instr : block.instrs) instr.replaceUses(r -> alias[r]);
+        }
+        return removed;
+    }
+
+    private void number(Block block, int[] memory, List<Object> replaced) {
+        List<Instr> instrs = block.instrs;
+        for (int i = 0; i < instrs.size(); i++) {
+            Instr instr = instrs.get(i);
+            if (instr.op != Instr.PHI) instr.replaceUses(r -> alias[r]);
+            switch (instr.op) {
+                case Instr.STG:
+                    memory[SCALARS] = states++;
+                    remember(new Key(Instr.LDG, -1, -1, instr.imm, memory[SCALARS]), instr.a, replaced);
+                    continue;
+                case Instr.STX:
+                    memory[ARRAYS] = states++;
+                    remember(new Key(Instr.LDX, instr.b, -1, 0, memory[ARRAYS]), instr.a, replaced);
+                    continue;
+                case Instr.CALL:
+                    memory[SCALARS] = states++;
+                    memory[ARRAYS] = states++;
+                    continue;
+                default:
+            }
+            Key key = key(instr, memory);
+            if (key == null) continue;
+            Integer existing = table.get(key);
+            if (existing == null) {
+                // a CHECK has no result; -1 records that it has been done
+                remember(key, instr.dst, replaced);
+                continue;
+            }
+            if (instr.dst >= 0) alias[instr.dst] = existing;
+            instrs.remove(i--);
+            removed++;
+        }
+    }
+
+    // The table key of a value-numbered instruction, or null if it is not numbered.
+    private static Key key(Instr instr, int[] memory) {
+        int a = instr.a;
+        int b = instr.b;
+        switch (instr.op) {
+            case Instr.ADD: case Instr.MUL: case Instr.EQ: case Instr.NE:
+                // commutative: put the operands in one order
+                return new Key(instr.op, Math.min(a, b), Math.max(a, b), 0, -1);
+            case Instr.SUB: case Instr.DIV: case Instr.NEG:
+            case Instr.LT: case Instr.LE: case Instr.GT: case Instr.GE:
+            case Instr.CHECK:
+                return new Key(instr.op, a, b, 0, -1);
+            case Instr.CONST: case Instr.LDF: case Instr.ADDRG: case Instr.ADDRF:
+                return new Key(instr.op, -1, -1, instr.imm, -1);
+            case Instr.LDG:
+                return new Key(instr.op, -1, -1, instr.imm, memory[SCALARS]);
+            case Instr.LDX:
+                return new Key(instr.op, a, -1, 0, memory[ARRAYS]);
+            default:
+                return null;
+        }
+    }
+
+    private void remember(Key key, int reg, List<Object> replaced) {
+        Integer old = table.put(key, reg);
+        replaced.add(key);
+        replaced.add(old);
+    }
+
+    // Put back the entries a block replaced, newest first.
+    private void restore(List<Object> replaced) {
+        for (int i = replaced.size() - 2; i >= 0; i -= 2) {
+            Key key = (Key) replaced.get(i);
+            Integer old = (Integer) replaced.get(i + 1);
+            if (old == null) {
+                table.remove(key);
+            } else {
+                table.put(key, old);
+            }
+        }
+    }
+
+    /*
+      transparent[b][kind]: no path from b's immediate dominator to b (both
+      ends excluded, but b itself included when it lies on a loop back to
+      itself) writes that kind of memory. Found by walking back from b's
+      predecessors without passing the dominator.
+    */
+    private static boolean[][] transparency(Function function, Dominators dominators) {
+        int n = function.blockCount();
+        boolean[][] writes = new boolean[n][2];
+        for (Block block : function.blocks) {
+            for (Instr instr : block.instrs) {
+                if (instr.op == Instr.STG || instr.op == Instr.CALL) writes[block.id][SCALARS] = true;
+                if (instr.op == Instr.STX || instr.op == Instr.CALL) writes[block.id][ARRAYS] = true;
+            }
+        }
+        boolean[][] transparent = new boolean[n][2];
+        int[] seen = new int[n];
+        int stamp = 0;
+        List<Block> work = new ArrayList<>();
+        for (Block block : function.blocks) {
+            if (block == function.entry) continue;
+            Block idom = dominators.idom(block);
+            stamp++;
+            boolean scalars = true;
+            boolean arrays = true;
+            work.clear();
+            for (Block pred : block.preds) {
+                if (pred != idom && seen[pred.id] != stamp) {
+                    seen[pred.id] = stamp;
+                    work.add(pred);
+                }
+            }
+            while (!work.isEmpty() && (scalars || arrays)) {
+                Block b = work.remove(work.size() - 1);
+                if (writes[b.id][SCALARS]) scalars = false;
+                if (writes[b.id][ARRAYS]) arrays = false;
+                for (Block pred : b.preds) {
+                    if (pred != idom && seen[pred.id] != stamp) {
+                        seen[pred.id] = stamp;
+                        work.add(pred);
+                    }
+                }
+            }
+            transparent[block.id][SCALARS] = scalars;
+            transparent[block.id][ARRAYS] = arrays;
+        }
+        return transparent;
+    }
+}
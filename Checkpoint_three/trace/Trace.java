@@ -0,0 +1,83 @@
+package trace;
+
+import java.io.PrintStream;
+
+/*
+  Leveled trace output for the compiler phases. Every category has its own
+  level, OFF unless turned on from the command line. Call sites test the
+  level before building the message, so a disabled trace costs one array
+  read and no string concatenation:
+
+      if (Trace.on(Trace.CODEGEN, Trace.DEBUG)) Trace.log(Trace.CODEGEN, "[CG] IntExp: " + node.value);
+*/
+public final class Trace {
+
+    /* categories */
+    public static final int LEXER    = 0;
+    public static final int PARSER   = 1;
+    public static final int SEMANTIC = 2;
+    public static final int CODEGEN  = 3;
+    public static final int DRIVER   = 4;
+
+    public static final String[] CATEGORY_NAMES = { "lexer", "parser", "semantic", "codegen", "driver" };
+
+    /* levels */
+    public static final int OFF   = 0;
+    public static final int INFO  = 1;
+    public static final int DEBUG = 2;
+
+    public static final String[] LEVEL_NAMES = { "off", "info", "debug" };
+
+    private static final int[] levels = new int[CATEGORY_NAMES.length];
+    private static volatile PrintStream out = System.out;
+
+    private Trace() {}
+
+    public static boolean on(int category, int level) {
+        return levels[category] >= level;
+    }
+
+    public static void log(int category, String message) {
+        out.println(message);
+    }
+
+    public static void setLevel(int category, int level) {
+        levels[category] = level;
+    }
+
+    public static void setOutput(PrintStream stream) {
+        out = stream;
+    }
+
+    /*
+      Turn tracing on from a spec such as "codegen:debug,driver" or "all:info".
+      A category without a level is traced at DEBUG. Returns false if the spec
+      names an unknown category or level.
+    */
+    public static boolean configure(String spec) {
+        for (String part : spec.split(",")) {
+            if (part.isEmpty()) continue;
+            String[] pieces = part.split(":", 2);
+            int level = DEBUG;
+            if (pieces.length > 1) {
+                level = indexOf(LEVEL_NAMES, pieces[1]);
+                if (level < 0) return false;
+            }
+            if (pieces[0].equals("all")) {
+                for (int i = 0; i < levels.length; i++) levels[i] = level;
+                continue;
+            }
+            int category = indexOf(CATEGORY_NAMES, pieces[0]);
+            if (category < 0) return false;
+            levels[category] = level;
+        }
+        return true;
+    }
+
+    private static int indexOf(String[] names, String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equalsIgnoreCase(name)) return i;
+        }
+        return -1;
+    }
+}